@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Local http or https server that answers every GET with the same random
+ * payload, so downloads can be measured without a network. It is a plain
+ * blocking socket server with a thread per connection and keep-alive, the JDK's
+ * own HttpsServer is too slow to tell TLS client costs apart. The https
+ * certificate is a self signed one for 127.0.0.1.
+ */
+public class BenchmarkServer implements Runnable {
+	private static final String KEYSTORE = "/benchmark.jks";
+	private static final char[] PASSWORD = "benchmark".toCharArray();
+
+	private final ServerSocket server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final byte[] header;
+	private final byte[] payload;
+	private final boolean tls;
+
+	public BenchmarkServer(int size, boolean tls) throws IOException {
+		this.payload = new byte[size];
+		this.tls = tls;
+
+		new Random(size).nextBytes(payload);
+
+		header = ("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: " + size + "\r\n\r\n")
+				.getBytes("US-ASCII");
+
+		InetAddress address = InetAddress.getByName("127.0.0.1");
+
+		if (tls) {
+			server = createSSLContext().getServerSocketFactory().createServerSocket(0, 50, address);
+		} else {
+			server = new ServerSocket(0, 50, address);
+		}
+
+		executor.execute(this);
+	}
+
+	private static SSLContext createSSLContext() throws IOException {
+		InputStream in = BenchmarkServer.class.getResourceAsStream(KEYSTORE);
+
+		try {
+			KeyStore ks = KeyStore.getInstance("JKS");
+			ks.load(in, PASSWORD);
+
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, PASSWORD);
+
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(kmf.getKeyManagers(), null, null);
+
+			return context;
+		} catch (Exception e) {
+			throw new IOException("Unable to load " + KEYSTORE, e);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void run() {
+		while (!server.isClosed()) {
+			try {
+				final Socket socket = server.accept();
+
+				executor.execute(new Runnable() {
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of a connection until the client closes it
+	 */
+	private void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+
+			while (readRequest(in)) {
+				out.write(header);
+				out.write(payload);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Skips the request line and headers, returns false at the end of the
+	 * stream. Requests are expected to have no body.
+	 */
+	private static boolean readRequest(InputStream in) throws IOException {
+		int c;
+		int blank = 0;
+
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				if (++blank == 2) {
+					return true;
+				}
+			} else if (c != '\r') {
+				blank = 0;
+			}
+		}
+
+		return false;
+	}
+
+	public URL getUrl(String name) throws MalformedURLException {
+		return new URL((tls ? "https" : "http") + "://127.0.0.1:" + server.getLocalPort() + "/" + name);
+	}
+
+	public int getSize() {
+		return payload.length;
+	}
+
+	public void stop() {
+		try {
+			server.close();
+		} catch (IOException e) {
+		}
+
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.kamranzafar.jddl.DirectDownloader;
+import org.kamranzafar.jddl.DownloadAdaptor;
+import org.kamranzafar.jddl.DownloadHandle;
+import org.kamranzafar.jddl.DownloadTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many files per second DirectDownloader fetches from a local
+ * server. Every invocation downloads a batch of files into a stream that
+ * discards them, so the figures cover the connection, the copy loop and the
+ * listener calls but no disk writes. Multiply by the file size for bytes per
+ * second.
+ * 
+ * Run with: java -jar target/benchmarks.jar DownloadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(DownloadBenchmark.BATCH)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+	static final int BATCH = 8;
+
+	@Param({ "2048", "65536" })
+	private int bufferSize;
+
+	@Param({ "1", "4" })
+	private int poolSize;
+
+	@Param({ "16384", "1048576", "16777216" })
+	private int fileSize;
+
+	@Param({ "1", "4" })
+	private int listeners;
+
+	@Param({ "false", "true" })
+	private boolean tls;
+
+	private BenchmarkServer server;
+	private DirectDownloader dd;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		server = new BenchmarkServer(fileSize, tls);
+
+		dd = new DirectDownloader(poolSize);
+		dd.setBufferSize(bufferSize);
+		// keeps the pool from growing the buffers, so bufferSize is what is
+		// measured
+		dd.setMaxBufferSize(bufferSize);
+		dd.run();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public void download() throws Exception {
+		DownloadHandle[] handles = new DownloadHandle[BATCH];
+
+		for (int i = 0; i < BATCH; i++) {
+			DownloadTask dt = new DownloadTask(server.getUrl("file" + i + ".bin"), new NullOutputStream());
+
+			for (int l = 0; l < listeners; l++) {
+				dt.addListener(new DownloadAdaptor());
+			}
+
+			handles[i] = dd.submit(dt);
+		}
+
+		// a failed download fails the iteration with its cause
+		for (DownloadHandle handle : handles) {
+			handle.get(5, TimeUnit.MINUTES);
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
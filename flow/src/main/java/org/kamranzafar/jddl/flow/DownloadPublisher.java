@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.flow;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.kamranzafar.jddl.DirectDownloader;
+import org.kamranzafar.jddl.DownloadCallback;
+import org.kamranzafar.jddl.DownloadHandle;
+import org.kamranzafar.jddl.DownloadResult;
+import org.kamranzafar.jddl.DownloadTask;
+
+/**
+ * Publishes the body of a download as it arrives, so it can be parsed, hashed
+ * or forwarded without a file in between. The download is submitted when a
+ * subscriber subscribes, only one subscriber is allowed. Every chunk read from
+ * the server is passed on as a buffer of its own, and the download waits while
+ * the subscriber has no outstanding demand, so at most the requested chunks are
+ * held in memory. Cancelling the subscription cancels the download.
+ */
+public class DownloadPublisher implements Flow.Publisher<ByteBuffer> {
+	private final DirectDownloader downloader;
+	private final DownloadTask task;
+
+	private boolean subscribed = false;
+
+	public DownloadPublisher(DirectDownloader downloader, URL url) {
+		this(downloader, new DownloadTask(url, (OutputStream) null));
+	}
+
+	/**
+	 * Publishes the body of the given task, its output stream is replaced and
+	 * any file is ignored
+	 */
+	public DownloadPublisher(DirectDownloader downloader, DownloadTask task) {
+		this.downloader = downloader;
+		this.task = task;
+	}
+
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		synchronized (this) {
+			if (subscribed) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					public void request(long n) {
+					}
+
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("Already subscribed to " + task.getUrl()));
+				return;
+			}
+
+			subscribed = true;
+		}
+
+		final Body body = new Body(subscriber);
+		subscriber.onSubscribe(body);
+
+		task.setFile(null);
+		task.setOutputStream(body);
+
+		DownloadHandle handle;
+
+		try {
+			handle = downloader.submit(task);
+		} catch (RejectedExecutionException e) {
+			// the queue is full or the downloader is shut down, subscribe()
+			// itself must not throw
+			if (!body.isCancelled()) {
+				subscriber.onError(e);
+			}
+
+			return;
+		}
+
+		handle.addCallback(new DownloadCallback() {
+			public void onSuccess(DownloadResult result) {
+				if (!body.isCancelled()) {
+					body.subscriber.onComplete();
+				}
+			}
+
+			public void onFailure(Throwable cause) {
+				Throwable error = body.getError();
+
+				if (error != null) {
+					body.subscriber.onError(error);
+				} else if (!body.isCancelled()) {
+					body.subscriber.onError(cause);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Output stream the download writes into, every write waits for demand
+	 * and is handed to the subscriber
+	 */
+	private class Body extends OutputStream implements Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+		private long demand = 0;
+		private boolean cancelled = false;
+		private Throwable error;
+
+		Body(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public synchronized void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Requested " + n + " buffers");
+				cancel();
+				return;
+			}
+
+			demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+			notifyAll();
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			task.setCancelled(true);
+			notifyAll();
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		synchronized Throwable getError() {
+			return error;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (this) {
+				try {
+					while (demand == 0 && !cancelled) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for demand");
+				}
+
+				if (cancelled) {
+					throw new IOException("Subscription cancelled");
+				}
+
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+			}
+
+			// the download reuses its buffer, so the subscriber gets a copy
+			ByteBuffer buffer = ByteBuffer.allocate(len);
+			buffer.put(b, off, len).flip();
+
+			subscriber.onNext(buffer);
+		}
+	}
+}
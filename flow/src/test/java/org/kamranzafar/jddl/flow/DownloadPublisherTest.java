@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.flow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kamranzafar.jddl.DirectDownloader;
+
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class DownloadPublisherTest {
+	private final byte[] payload = new byte[1024 * 1024 + 3];
+
+	private HttpServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		new Random(1).nextBytes(payload);
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			exchange.sendResponseHeaders(200, payload.length);
+
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(payload);
+			} catch (IOException e) {
+				// client went away
+			}
+		});
+		server.start();
+
+		dd = new DirectDownloader();
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		Collector collector = new Collector(Long.MAX_VALUE);
+		new DownloadPublisher(dd, getUrl()).subscribe(collector);
+
+		assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+		assertNull(collector.error);
+		assertArrayEquals(payload, collector.out.toByteArray());
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		Collector collector = new Collector(2);
+		new DownloadPublisher(dd, getUrl()).subscribe(collector);
+
+		// nothing more arrives until more is requested
+		Thread.sleep(500);
+		assertEquals(2, collector.buffers);
+
+		collector.subscription.request(Long.MAX_VALUE);
+
+		assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+		assertArrayEquals(payload, collector.out.toByteArray());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		Collector collector = new Collector(1);
+		new DownloadPublisher(dd, getUrl()).subscribe(collector);
+
+		Thread.sleep(200);
+		collector.subscription.cancel();
+
+		assertTrue(!collector.done.await(1, TimeUnit.SECONDS));
+		assertEquals(1, collector.buffers);
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		dd.shutdown();
+
+		// the rejection is signalled to the subscriber, not thrown
+		Collector collector = new Collector(1);
+		new DownloadPublisher(dd, getUrl()).subscribe(collector);
+
+		assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+		assertTrue(collector.error instanceof RejectedExecutionException);
+		assertEquals(0, collector.buffers);
+	}
+
+	private URL getUrl() throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin");
+	}
+
+	private static class Collector implements Flow.Subscriber<ByteBuffer> {
+		private final long initial;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		private volatile Flow.Subscription subscription;
+		private volatile int buffers;
+		private volatile Throwable error;
+
+		Collector(long initial) {
+			this.initial = initial;
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initial);
+		}
+
+		public void onNext(ByteBuffer item) {
+			buffers++;
+			byte[] b = new byte[item.remaining()];
+			item.get(b);
+			out.write(b, 0, b.length);
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.http2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpURLConnection view of a request made through an HttpClient. The request
+ * is sent on connect, which returns once the response headers are in, the body
+ * is read from the stream the client fills as it arrives. The read timeout
+ * limits the wait for the headers and for each read of the body.
+ */
+class HttpClientConnection extends HttpURLConnection {
+	private final HttpClient client;
+
+	private HttpResponse<InputStream> response;
+	private InputStream body;
+	private List<String> keys;
+	private List<String> values;
+
+	HttpClientConnection(URL url, HttpClient client) {
+		super(url);
+		this.client = client;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected) {
+			return;
+		}
+
+		HttpRequest.Builder builder;
+
+		try {
+			builder = HttpRequest.newBuilder(url.toURI()).method(getRequestMethod(),
+					HttpRequest.BodyPublishers.noBody());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid URL " + url, e);
+		}
+
+		if (getReadTimeout() > 0) {
+			builder.timeout(Duration.ofMillis(getReadTimeout()));
+		}
+
+		for (Map.Entry<String, List<String>> header : getRequestProperties().entrySet()) {
+			for (String value : header.getValue()) {
+				try {
+					builder.header(header.getKey(), value);
+				} catch (IllegalArgumentException e) {
+					// headers such as Connection and Host are managed by the
+					// client
+				}
+			}
+		}
+
+		try {
+			response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting to " + url);
+		}
+
+		// the request timeout ends with the headers
+		body = getReadTimeout() > 0 ? new TimeoutInputStream(response.body(), getReadTimeout()) : response.body();
+		responseCode = response.statusCode();
+		connected = true;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		connect();
+		return responseCode;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		connect();
+
+		if (responseCode >= 400) {
+			if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+				throw new FileNotFoundException(url.toString());
+			}
+
+			throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+		}
+
+		return body;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return connected && responseCode >= 400 ? body : null;
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		if (!connectQuietly()) {
+			return null;
+		}
+
+		return response.headers().firstValue(name).orElse(null);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		if (!connectQuietly()) {
+			return new LinkedHashMap<String, List<String>>();
+		}
+
+		return response.headers().map();
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		return connectQuietly() && n < keys.size() ? keys.get(n) : null;
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		return connectQuietly() && n < values.size() ? values.get(n) : null;
+	}
+
+	/**
+	 * Connects for the header methods, which can't throw, and flattens the
+	 * headers for access by index, the status line first the way
+	 * HttpURLConnection has it
+	 */
+	private boolean connectQuietly() {
+		try {
+			connect();
+		} catch (IOException e) {
+			return false;
+		}
+
+		if (keys == null) {
+			keys = new ArrayList<String>();
+			values = new ArrayList<String>();
+
+			keys.add(null);
+			values.add((response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1") + " "
+					+ responseCode);
+
+			for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+				for (String value : header.getValue()) {
+					keys.add(header.getKey());
+					values.add(value);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Closes the response body, which for HTTP/2 resets just this stream and
+	 * leaves the connection to the other downloads
+	 */
+	@Override
+	public void disconnect() {
+		if (body != null) {
+			try {
+				body.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	/**
+	 * Returns the HTTP version the response came over
+	 */
+	public HttpClient.Version getVersion() {
+		return response != null ? response.version() : null;
+	}
+}
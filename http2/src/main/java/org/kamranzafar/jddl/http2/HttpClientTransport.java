@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.http2;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import org.kamranzafar.jddl.Transport;
+
+/**
+ * Transport that makes all requests through a single java.net.http.HttpClient.
+ * The client speaks HTTP/2 where the server does, so the downloads from a host
+ * share one connection with a stream each, and falls back to HTTP/1.1
+ * otherwise. Response bodies are received asynchronously by the client and read
+ * by the downloader as an ordinary stream.
+ * 
+ * Unlike the built-in connections, the default client checks server
+ * certificates against the JVM's trust store. Proxies, TLS settings and the
+ * like are configured on the client, the proxy and SSL settings of the
+ * downloader don't apply.
+ */
+public class HttpClientTransport implements Transport {
+	private final HttpClient client;
+
+	public HttpClientTransport() {
+		this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(15)).build());
+	}
+
+	public HttpClientTransport(HttpClient client) {
+		this.client = client;
+	}
+
+	public HttpURLConnection openConnection(URL url, Proxy proxy) throws IOException {
+		return new HttpClientConnection(url, client);
+	}
+
+	public HttpClient getClient() {
+		return client;
+	}
+}
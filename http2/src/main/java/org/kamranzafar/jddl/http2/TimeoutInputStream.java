@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.http2;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a read timeout to a response body, which the HttpClient doesn't do
+ * once the headers are in. A watchdog closes the body if a read gets no data
+ * for the timeout, which ends the read, and the read then fails with a
+ * SocketTimeoutException like a socket read would.
+ * 
+ * The watchdog checks a stream once per timeout at most, rather than being
+ * scheduled for every read.
+ */
+class TimeoutInputStream extends FilterInputStream implements Runnable {
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "jddl-http2-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	private final long timeout;
+
+	// start of the pending read, 0 while no read is pending
+	private volatile long started;
+	private volatile boolean timedOut;
+	private ScheduledFuture<?> check;
+
+	TimeoutInputStream(InputStream in, int timeout) {
+		super(in);
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+
+	@Override
+	public int read() throws IOException {
+		begin();
+
+		try {
+			return super.read();
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		begin();
+
+		try {
+			return super.read(b, off, len);
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		begin();
+
+		try {
+			return super.skip(n);
+		} finally {
+			end();
+		}
+	}
+
+	private void begin() throws IOException {
+		timeout();
+
+		synchronized (this) {
+			started = System.nanoTime();
+
+			if (check == null) {
+				check = WATCHDOG.schedule(this, timeout, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	private void end() throws IOException {
+		started = 0;
+
+		// the closed body ends the read, possibly as if the body was complete
+		timeout();
+	}
+
+	private void timeout() throws SocketTimeoutException {
+		if (timedOut) {
+			throw new SocketTimeoutException("Read timed out");
+		}
+	}
+
+	/**
+	 * Closes the body if the pending read has waited for the timeout,
+	 * otherwise checks again when it would have
+	 */
+	public void run() {
+		synchronized (this) {
+			long s = started;
+
+			if (s == 0) {
+				// the next read schedules a check
+				check = null;
+				return;
+			}
+
+			long waited = System.nanoTime() - s;
+
+			if (waited < timeout) {
+				check = WATCHDOG.schedule(this, timeout - waited, TimeUnit.NANOSECONDS);
+				return;
+			}
+
+			timedOut = true;
+			check = null;
+		}
+
+		try {
+			in.close();
+		} catch (IOException e) {
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (check != null) {
+				check.cancel(false);
+				check = null;
+			}
+		}
+
+		in.close();
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kamranzafar.jddl.DirectDownloader;
+import org.kamranzafar.jddl.DownloadAdaptor;
+import org.kamranzafar.jddl.DownloadHandle;
+import org.kamranzafar.jddl.DownloadTask;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class HttpClientTransportTest {
+	private final byte[] payload = new byte[3 * 1024 * 1024 + 5];
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private HttpServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		new Random(1).nextBytes(payload);
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+
+		dd = new DirectDownloader();
+		dd.setTransport(new HttpClientTransport());
+		dd.setMinSegmentSize(512 * 1024);
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		dd.shutdown();
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (exchange.getRequestURI().getPath().equals("/stall.bin")) {
+			stall(exchange);
+			return;
+		}
+
+		int start = 0;
+		int end = payload.length - 1;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+
+		if (range != null) {
+			String[] r = range.substring(6).split("-", -1);
+			start = Integer.parseInt(r[0]);
+			if (r[1].length() > 0) {
+				end = Math.min(end, Integer.parseInt(r[1]));
+			}
+
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + payload.length);
+		}
+
+		exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(payload, start, end - start + 1);
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	/**
+	 * Sends part of the body and then nothing until the test ends
+	 */
+	private void stall(HttpExchange exchange) throws IOException {
+		exchange.sendResponseHeaders(200, payload.length);
+
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(payload, 0, 1024);
+			os.flush();
+			release.await(30, TimeUnit.SECONDS);
+		} catch (IOException e) {
+			// client went away
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CountDownLatch done = new CountDownLatch(1);
+
+		dd.download(new DownloadTask(getUrl("file.bin"), out, new Completion(done)));
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertArrayEquals(payload, out.toByteArray());
+	}
+
+	@Test
+	public void testSegmented() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+		CountDownLatch done = new CountDownLatch(1);
+
+		dd.download(new DownloadTask(getUrl("file.bin"), f, new Completion(done)).setSegments(3));
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertArrayEquals(payload, Files.readAllBytes(f.toPath()));
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		DownloadHandle handle = dd.submit(new DownloadTask(getUrl("stall.bin"), new ByteArrayOutputStream())
+				.setTimeout(500));
+
+		try {
+			handle.get(10, TimeUnit.SECONDS);
+			fail("Stalled download completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+	}
+
+	private URL getUrl(String name) throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name);
+	}
+
+	private static class Completion extends DownloadAdaptor {
+		private final CountDownLatch done;
+
+		Completion(CountDownLatch done) {
+			this.done = done;
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read buffers shared by the workers of a downloader. A worker borrows a buffer
+ * per task and gives it back when done, so buffers are not allocated for every
+ * download. Buffers that keep getting filled up by a single read are doubled in
+ * size, up to a limit, and the pool remembers the size so later tasks start
+ * with it.
+ */
+class BufferPool {
+	// consecutive full reads before a buffer is grown
+	private static final int GROW_AFTER = 8;
+
+	// free buffers kept per size
+	private static final int MAX_FREE = 32;
+
+	private final Map<Integer, List<byte[]>> free = new HashMap<Integer, List<byte[]>>();
+	private volatile int preferredSize;
+
+	public synchronized byte[] acquire(int size) {
+		List<byte[]> buffers = free.get(size);
+
+		if (buffers != null && !buffers.isEmpty()) {
+			return buffers.remove(buffers.size() - 1);
+		}
+
+		return new byte[size];
+	}
+
+	public synchronized void release(byte[] buff) {
+		List<byte[]> buffers = free.get(buff.length);
+
+		if (buffers == null) {
+			buffers = new ArrayList<byte[]>();
+			free.put(buff.length, buffers);
+		}
+
+		if (buffers.size() < MAX_FREE) {
+			buffers.add(buff);
+		}
+	}
+
+	/**
+	 * Borrows a buffer of at least the given size that may grow up to
+	 * maxSize while it is used
+	 */
+	public Buffer borrow(int size, int maxSize) {
+		return new Buffer(Math.max(size, Math.min(preferredSize, maxSize)), maxSize);
+	}
+
+	public class Buffer {
+		private final int maxSize;
+		private byte[] array;
+		private int full = 0;
+
+		private Buffer(int size, int maxSize) {
+			this.maxSize = maxSize;
+			this.array = acquire(size);
+		}
+
+		public byte[] array() {
+			return array;
+		}
+
+		public int capacity() {
+			return array.length;
+		}
+
+		/**
+		 * Records the number of bytes the last read returned, growing the
+		 * buffer if the data arrives faster than it is drained
+		 */
+		public void update(int read) {
+			if (read < array.length || array.length >= maxSize) {
+				full = 0;
+				return;
+			}
+
+			if (++full >= GROW_AFTER) {
+				int size = Math.min(array.length * 2, maxSize);
+
+				BufferPool.this.release(array);
+				array = acquire(size);
+				full = 0;
+
+				if (size > preferredSize) {
+					preferredSize = size;
+				}
+			}
+		}
+
+		public void release() {
+			if (array != null) {
+				BufferPool.this.release(array);
+				array = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Thrown when the checksum of a downloaded file doesn't match the one the task
+ * expected
+ */
+public class ChecksumException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final String expected;
+	private final String actual;
+
+	public ChecksumException(URL url, String algorithm, String expected, String actual) {
+		super(algorithm + " of " + url + " is " + actual + ", expected " + expected);
+		this.expected = expected;
+		this.actual = actual;
+	}
+
+	public String getExpected() {
+		return expected;
+	}
+
+	public String getActual() {
+		return actual;
+	}
+}
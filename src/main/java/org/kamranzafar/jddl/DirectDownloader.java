@@ -17,6 +17,9 @@
 
 package org.kamranzafar.jddl;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,9 +27,24 @@ import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.kamranzafar.jddl.util.Base64;
@@ -36,12 +54,53 @@ import org.kamranzafar.jddl.util.Base64;
  * 
  */
 public class DirectDownloader extends HttpConnector implements Runnable {
+	/**
+	 * How the downloader winds down, see {@link #shutdown(ShutdownMode)}
+	 */
+	public enum ShutdownMode {
+		/**
+		 * Finishes the running and the queued downloads
+		 */
+		DRAIN,
+		/**
+		 * Finishes the running downloads, queued ones are not started
+		 */
+		FINISH_ACTIVE,
+		/**
+		 * Stops the running downloads right away, queued ones are not started
+		 */
+		ABORT
+	}
+
 	private int poolSize = 3;
 	private int bufferSize = 2048;
+	private int maxBufferSize = 256 * 1024;
+	private Executor listenerExecutor;
+	private long progressInterval = 0;
+	private long progressThreshold = 0;
+	private int minSegmentSize = 1024 * 1024;
+
+	private Executor executor;
+	private boolean ownExecutor = false;
+	private boolean started = false;
+	private boolean stopped = false;
+	private ShutdownMode shutdownMode;
+	// worker runs handed to the executor that haven't returned yet
+	private int running = 0;
+	private int maxQueued = 0;
+	// queue slots held by submitAll() while it takes the next task
+	private int reserved = 0;
+	private final Set<DownloadWorker> workers = new HashSet<DownloadWorker>();
+	private final Map<DownloadTask, DownloadWorker> paused = new HashMap<DownloadTask, DownloadWorker>();
+	private final Map<DownloadTask, DownloadWorker> resumed = new HashMap<DownloadTask, DownloadWorker>();
 
-	private DirectDownloadThread[] dts;
 	private Proxy proxy;
-	private final BlockingQueue<DownloadTask> tasks = new LinkedBlockingQueue<DownloadTask>();
+	private final TaskScheduler scheduler = new TaskScheduler();
+	private final BufferPool buffers = new BufferPool();
+	private final RateLimiter rateLimiter = new RateLimiter(0);
+	private final Map<String, RateLimiter> hostRateLimiters = new HashMap<String, RateLimiter>();
+	private final DownloadMetrics metrics = new DownloadMetrics(this);
+	private volatile RetryPolicy retryPolicy;
 
 	private static Logger logger = Logger.getLogger(DirectDownloader.class.getName());
 
@@ -61,20 +120,61 @@ public class DirectDownloader extends HttpConnector implements Runnable {
 		this.proxy = proxy;
 	}
 
-	protected class DirectDownloadThread extends Thread {
+	/**
+	 * Runs the downloads on the given executor, e.g. one shared with other
+	 * downloaders or one that starts a virtual thread per task. At most
+	 * poolSize downloads run at the same time, the extra connections of
+	 * segmented downloads run on the executor as well.
+	 */
+	public DirectDownloader(Executor executor, int poolSize) {
+		this.executor = executor;
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Downloads a single task, a worker is handed to the executor for every
+	 * task that is started
+	 */
+	protected class DownloadWorker implements Runnable {
 		private static final String CD_FNAME = "fname=";
 		private static final String CONTENT_DISPOSITION = "Content-Disposition";
+		private static final String CONTENT_RANGE = "Content-Range";
+		private static final String RANGE = "Range";
+		private static final String IF_RANGE = "If-Range";
+		private static final String RETRY_AFTER = "Retry-After";
+		private static final String ACCEPT_RANGES = "Accept-Ranges";
+		// how much of a file is filled with zeros between checks for a cancel
+		private static final long ALLOCATE_STEP = 4 * 1024 * 1024;
+
+		private volatile boolean stop = false;
+		private volatile boolean aborted = false;
+		private volatile Thread runner;
+
+		private final DownloadTask task;
+		private ListenerDispatcher listener;
+		private Progress progress;
 
-		private boolean cancel = false;
-		private boolean stop = false;
+		private HttpURLConnection conn;
+		private volatile List<SegmentFetch> fetches;
+		private long length = -1;
+		private long responseEnd = -1;
+		private boolean drained = false;
+		private boolean ranges = false;
+		private DownloadDigest digest;
+		private String checksum;
+		// opened from the task's factory, kept across retries and pauses
+		private OutputStream stream;
 
-		private final BlockingQueue<DownloadTask> tasks;
+		// the task of the last attempt and its journal, a retry resumes from
+		// it
+		private DownloadTask attempted;
+		private DownloadJournal resume;
 
-		public DirectDownloadThread(BlockingQueue<DownloadTask> tasks) {
-			this.tasks = tasks;
+		public DownloadWorker(DownloadTask task) {
+			this.task = task;
 		}
 
-		protected void download(DownloadTask dt) throws IOException, InterruptedException, KeyManagementException,
+		protected HttpURLConnection openConnection(DownloadTask dt) throws IOException, KeyManagementException,
 				NoSuchAlgorithmException {
 			HttpURLConnection conn = (HttpURLConnection) getConnection(dt.getUrl(), proxy);
 
@@ -87,9 +187,77 @@ public class DirectDownloader extends HttpConnector implements Runnable {
 
 			conn.setReadTimeout(dt.getTimeout());
 			conn.setDoOutput(true);
+
+			return conn;
+		}
+
+		protected void download(DownloadTask dt) throws IOException, InterruptedException, KeyManagementException,
+				NoSuchAlgorithmException {
+			DownloadJournal journal = null;
+			Segment first = null;
+			drained = false;
+
+			if (!dt.advance(DownloadTask.State.CONNECTING) && dt.isCancelled()) {
+				throw new RuntimeException("Cancelled download");
+			}
+
+			if (dt != attempted) {
+				attempted = dt;
+				resume = null;
+				listener = null;
+				progress = null;
+				digest = null;
+			}
+
+			checksum = null;
+
+			if (resume != null && (first = resume.getNextSegment()) != null) {
+				journal = resume;
+			} else if (dt.getFile() != null && dt.isResumable()) {
+				journal = DownloadJournal.load(dt.getFile(), dt.getUrl());
+
+				if (journal != null && (first = journal.getNextSegment()) == null) {
+					journal.delete();
+					journal = null;
+				}
+			}
+
+			// reserved before the download connects, so that its response
+			// doesn't sit unread while the file is filled
+			long allocated = 0;
+			if (journal == null && dt.getFile() != null && dt.isPreallocate()) {
+				allocated = preallocate(dt);
+			}
+
+			conn = openConnection(dt);
+
+			if (journal != null) {
+				// ask for the rest of the file, unless it has changed since
+				conn.setRequestProperty(RANGE, first.getRange());
+				conn.setRequestProperty(IF_RANGE, journal.getValidator());
+			} else if (dt.getSegments() > 1) {
+				// probe for range support, a partial response means the file
+				// can be fetched in segments
+				conn.setRequestProperty(RANGE, "bytes=0-");
+			}
+
+			long time = System.nanoTime();
 			conn.connect();
+			metrics.connected(dt, System.nanoTime() - time);
+
+			long fsize = getContentLengthLong(conn);
+			metrics.firstByte(dt, System.nanoTime() - time);
+
+			if (conn.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+				HttpStatusException e = new HttpStatusException(dt.getUrl(), conn.getResponseCode(),
+						conn.getHeaderField(RETRY_AFTER));
+				discard(conn);
+				throw e;
+			}
+
+			ranges = conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+					|| "bytes".equalsIgnoreCase(conn.getHeaderField(ACCEPT_RANGES));
 
-			int fsize = conn.getContentLength();
 			String fname;
 
 			String cd = conn.getHeaderField(CONTENT_DISPOSITION);
@@ -101,141 +269,1731 @@ public class DirectDownloader extends HttpConnector implements Runnable {
 				fname = url.substring(url.lastIndexOf('/') + 1);
 			}
 
-			InputStream is = conn.getInputStream();
+			if (journal != null) {
+				if (journal.isResumed(conn, first)) {
+					fsize = journal.getLength();
+					logger.info("Resuming " + fname + " from byte " + first.getPosition());
+				} else {
+					journal.delete();
+					journal = null;
+					resume = null;
+
+					// the stream already has the bytes of the failed attempt
+					if (dt.getFile() == null) {
+						conn.disconnect();
+						throw new IOException(fname + " changed on the server, unable to resume");
+					}
+				}
+			}
+
+			boolean resumed = journal != null;
+
+			// the last byte of the response, which runs past the first segment
+			// if the file is split
+			responseEnd = journal != null ? first.getEnd() : fsize - 1;
+			length = fsize;
+
+			InputStream is;
+
+			try {
+				is = conn.getInputStream();
+			} catch (IOException e) {
+				discard(conn);
+				throw e;
+			}
+
+			FileSink sink = null;
+
+			try {
+				sink = dt.getFile() != null ? new FileSink(dt.getFile()) : null;
+
+				List<Segment> segments;
+
+				if (journal != null) {
+					segments = journal.getSegments();
+				} else {
+					segments = Segment.split(fsize, getSegmentCount(dt, conn, fsize));
+					first = segments.get(0);
+
+					if (sink != null) {
+						// the file is filled with zeros already, unless its
+						// size has changed since
+						if (allocated <= 0 || allocated != fsize) {
+							sink.setLength(0);
+						}
+
+						if (dt.isResumable()) {
+							journal = DownloadJournal.create(dt.getFile(), dt.getUrl(), conn, fsize, segments);
+						}
+					}
+
+					// kept in memory for a retry or a pause to resume from,
+					// segments spooled for a stream can't be resumed
+					if (journal == null && (sink != null || segments.size() == 1)) {
+						journal = DownloadJournal.create(null, dt.getUrl(), conn, fsize, segments);
+					}
+				}
+
+				resume = journal;
+
+				if (dt.getChecksumAlgorithm() == null) {
+					digest = null;
+				} else if (!resumed || digest == null) {
+					digest = new DownloadDigest(dt.getChecksumAlgorithm());
+				}
+
+				// a resumed file hashes the bytes of the earlier run, as far
+				// as a failed attempt hasn't already
+				if (digest != null && resumed && sink != null) {
+					digest.catchUp(sink, first.getPosition());
+				}
+
+				OutputStream os = sink != null ? sink.getOutputStream(first.getPosition()) : getOutputStream(dt);
+				dt.advance(DownloadTask.State.RUNNING);
+				transfer(dt, is, os, sink, journal, fname, fsize, segments, first);
+			} finally {
+				if (!drained) {
+					conn.disconnect();
+				}
+
+				if (sink != null) {
+					sink.close();
+				}
+			}
+		}
+
+		/**
+		 * Reserves the disk space of a new file download by filling the file
+		 * with zeros, for the length a HEAD request reports. Returns the
+		 * number of bytes reserved, 0 if the length isn't known.
+		 */
+		private long preallocate(DownloadTask dt) throws IOException, KeyManagementException,
+				NoSuchAlgorithmException {
+			HttpURLConnection head = openConnection(dt);
+			head.setDoOutput(false);
+			head.setRequestMethod("HEAD");
+
+			long length;
+
+			try {
+				head.connect();
+				length = head.getResponseCode() == HttpURLConnection.HTTP_OK ? getContentLengthLong(head) : -1;
+			} finally {
+				discard(head);
+			}
+
+			if (length <= 0) {
+				return 0;
+			}
+
+			FileSink sink = new FileSink(dt.getFile());
+
+			try {
+				sink.setLength(0);
+
+				for (long position = 0; position < length; position += ALLOCATE_STEP) {
+					if (stop || dt.isCancelled()) {
+						throw new IOException("Download of " + dt.getUrl() + " stopped while reserving disk space");
+					}
+
+					sink.fill(position, Math.min(length, position + ALLOCATE_STEP));
+				}
+			} finally {
+				sink.close();
+			}
+
+			return length;
+		}
+
+		/**
+		 * Reads the body of an error response so the connection can go back to
+		 * the JDK's keep-alive cache for the next request to the host. A
+		 * connection without one is closed instead.
+		 */
+		private void discard(HttpURLConnection conn) {
+			InputStream es = conn.getErrorStream();
+
+			if (es == null) {
+				conn.disconnect();
+				return;
+			}
+
+			try {
+				byte[] buff = new byte[1024];
+				while (es.read(buff) != -1) {
+				}
+				es.close();
+			} catch (IOException e) {
+				conn.disconnect();
+			}
+		}
+
+		/**
+		 * Returns the number of segments the file will be split into, or 1 if
+		 * it should be fetched over a single connection
+		 */
+		private int getSegmentCount(DownloadTask dt, HttpURLConnection conn, long fsize) throws IOException {
+			if (dt.getSegments() < 2 || fsize <= 0 || conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+				return 1;
+			}
+
+			// make sure the server sent back the whole file and not some
+			// other range
+			String cr = conn.getHeaderField(CONTENT_RANGE);
+			if (cr == null || !cr.trim().equals("bytes 0-" + (fsize - 1) + "/" + fsize)) {
+				return 1;
+			}
+
+			int count = (int) Math.min(dt.getSegments(), fsize / Math.max(1, minSegmentSize));
 
-			OutputStream os = dt.getOutputStream();
-			List<DownloadListener> listeners = dt.getListeners();
+			// don't split into more segments than the host has connections
+			// to spare, a host without a limit has MAX_VALUE to spare
+			int available = scheduler.getAvailable(dt.getUrl());
+			return Math.max(1, available == Integer.MAX_VALUE ? count : Math.min(count, available + 1));
+		}
+
+		/**
+		 * Copies the file into the output. The connection already opened
+		 * serves the first incomplete segment, any other incomplete segments
+		 * are fetched concurrently on the executor over connections of their
+		 * own, as far as the host has connections to spare. Once the first
+		 * segment is done the worker fetches the rest, and any the executor
+		 * hasn't got to yet, one after the other. For file downloads the
+		 * segments write their ranges in place, otherwise they are spooled to
+		 * temporary files and appended in order once the preceding segment is
+		 * written.
+		 */
+		private void transfer(DownloadTask dt, InputStream is, OutputStream os, FileSink sink,
+				DownloadJournal journal, String fname, long fsize, List<Segment> segments, Segment first)
+				throws IOException, InterruptedException {
+			List<SegmentFetch> fetches = new ArrayList<SegmentFetch>();
+
+			long written = 0;
+			for (Segment segment : segments) {
+				written += segment.getWritten();
+			}
 
-			byte[] buff = new byte[bufferSize];
-			int res;
+			if (listener == null) {
+				listener = new ListenerDispatcher(dt.getListeners(), listenerExecutor, progressInterval,
+						progressThreshold);
+				progress = new Progress(listener, written);
 
-			for (DownloadListener listener : listeners) {
 				listener.onStart(fname, fsize);
+			} else {
+				// a retry carries on with the listeners of the failed attempt
+				progress.setTotal(written);
 			}
 
-			int total = 0;
-			while ((res = is.read(buff)) != -1) {
-				os.write(buff, 0, res);
-				total += res;
-				for (DownloadListener listener : listeners) {
-					listener.onUpdate(res, total);
+			for (Segment segment : segments) {
+				if (segment != first && !segment.isComplete()) {
+					fetches.add(new SegmentFetch(dt, segment, sink, journal, progress));
 				}
+			}
 
-				synchronized (dt) {
-					// cancel download
-					if (cancel || dt.isCancelled()) {
-						close(is, os);
-						for (DownloadListener listener : listeners) {
-							listener.onCancel();
-						}
+			int reserved = fetches.isEmpty() ? 0 : scheduler.reserve(dt.getUrl(), fetches.size());
+			this.fetches = fetches;
 
-						throw new RuntimeException("Cancelled download");
+			try {
+				for (int i = 0; i < reserved; i++) {
+					try {
+						executor.execute(fetches.get(i));
+					} catch (RejectedExecutionException e) {
+						// fetched by this worker below
 					}
+				}
 
-					// stop thread
-					if (stop) {
-						close(is, os);
-						for (DownloadListener listener : listeners) {
-							listener.onCancel();
-						}
+				copy(dt, is, os, sink, first, progress, journal, null);
+
+				if (first.getEnd() >= 0 && !first.isComplete()) {
+					throw new IOException("Premature end of " + fname + " at byte " + first.getPosition());
+				}
 
-						throw new InterruptedException("Shutdown");
+				// a response read to its end goes back to the keep-alive
+				// cache, any other is dropped right away rather than drained
+				drained = first.getEnd() < 0 || first.getEnd() == responseEnd;
+				if (!drained) {
+					conn.disconnect();
+				}
+
+				// segments that didn't get a connection of their own or that
+				// are still waiting for a thread of the executor, which may be
+				// busy with this very worker
+				for (SegmentFetch fetch : fetches) {
+					fetch.fetch();
+				}
+
+				for (SegmentFetch fetch : fetches) {
+					fetch.await();
+
+					if (fetch.error != null) {
+						checkState(dt, is, os);
+
+						IOException e = new IOException("Failed to download " + fname + " at byte "
+								+ fetch.segment.getPosition());
+						e.initCause(fetch.error);
+						throw e;
 					}
 
-					// pause thread
-					while (dt.isPaused()) {
+					fetch.appendTo(os);
+				}
+
+				if (digest != null) {
+					verify(dt, sink, fsize);
+				}
+
+				if (journal != null) {
+					journal.delete();
+				}
+			} finally {
+				this.fetches = null;
+
+				for (SegmentFetch fetch : fetches) {
+					fetch.abort();
+				}
+
+				scheduler.release(dt.getUrl(), reserved);
+
+				if (journal != null) {
+					if (dt.isCancelled()) {
+						journal.delete();
+					} else {
+						// record the final positions so the next run resumes
+						// exactly where this one stopped
 						try {
-							wait();
-						} catch (Exception e) {
+							journal.save(sink);
+						} catch (IOException e) {
+							logger.warning("Unable to save download journal of " + fname + ": " + e);
 						}
 					}
 				}
 			}
 
-			for (DownloadListener listener : listeners) {
-				listener.onComplete();
-			}
+			listener.onComplete();
 
 			close(is, os);
 		}
 
-		private void close(InputStream is, OutputStream os) {
-			try {
-				is.close();
-				os.close();
-			} catch (IOException e) {
+		/**
+		 * Finishes the checksum, reading back the bytes that weren't hashed in
+		 * order as they were copied, and compares it with the expected one
+		 */
+		private void verify(DownloadTask dt, FileSink sink, long fsize) throws IOException {
+			if (sink != null) {
+				digest.catchUp(sink, fsize);
+			}
+
+			checksum = digest.getValue();
+
+			if (dt.getChecksum() != null && !dt.getChecksum().equalsIgnoreCase(checksum)) {
+				throw new ChecksumException(dt.getUrl(), dt.getChecksumAlgorithm(), dt.getChecksum(), checksum);
 			}
 		}
 
-		@Override
-		public void run() {
-			while (true) {
-				try {
-					download(tasks.take());
-				} catch (InterruptedException e) {
-					logger.info("Stopping download thread");
-					break;
-				} catch (Exception e) {
-					e.printStackTrace();
+		/**
+		 * Copies the bytes of a segment from the stream into the output until
+		 * the segment is complete or the stream ends. The fetch is null if the
+		 * segment is copied by this worker.
+		 */
+		private void copy(DownloadTask dt, InputStream is, OutputStream os, FileSink sink, Segment segment,
+				Progress progress, DownloadJournal journal, SegmentFetch fetch) throws IOException,
+				InterruptedException {
+			BufferPool.Buffer buff = buffers.borrow(bufferSize, maxBufferSize);
+			RateLimiter[] limiters = getRateLimiters(dt);
+
+			try {
+				int res;
+
+				while (!segment.isComplete()
+						&& (res = is.read(buff.array(), 0, getReadLength(segment, buff, limiters))) != -1) {
+					throttle(limiters, res);
+					os.write(buff.array(), 0, res);
+
+					if (digest != null) {
+						digest.update(buff.array(), 0, res, segment.getPosition());
+					}
+
+					buff.update(res);
+					segment.advance(res);
+					progress.update(res);
+
+					if (journal != null) {
+						journal.checkpoint(sink);
+					}
+
+					if (fetch == null) {
+						checkState(dt, is, os);
+					} else {
+						fetch.checkState();
+					}
 				}
+			} finally {
+				buff.release();
 			}
 		}
 
-		public void cancel() {
-			cancel = true;
+		private RateLimiter[] getRateLimiters(DownloadTask dt) {
+			return new RateLimiter[] { rateLimiter, getHostRateLimiter(TaskScheduler.getHost(dt.getUrl())),
+					dt.getRateLimiter() };
 		}
 
-		public void shutdown() {
-			stop = true;
+		/**
+		 * Returns the buffer size, or less if the segment is nearly done or a
+		 * rate limit allows only small reads
+		 */
+		private int getReadLength(Segment segment, BufferPool.Buffer buff, RateLimiter[] limiters) {
+			int len = segment.getReadLength(buff.capacity());
+
+			for (RateLimiter limiter : limiters) {
+				if (limiter != null) {
+					len = Math.min(len, limiter.getBurst());
+				}
+			}
+
+			return len;
 		}
-	}
 
-	public void download(DownloadTask dt) {
-		tasks.add(dt);
-	}
+		private void throttle(RateLimiter[] limiters, int bytes) throws InterruptedException {
+			for (RateLimiter limiter : limiters) {
+				if (limiter != null) {
+					limiter.acquire(bytes);
+				}
+			}
+		}
 
-	public void run() {
-		logger.info("Initializing downloader...");
+		private void checkState(DownloadTask dt, InputStream is, OutputStream os) throws IOException,
+				InterruptedException {
+			if (dt.getState() == DownloadTask.State.RUNNING && !stop) {
+				return;
+			}
 
-		dts = new DirectDownloadThread[poolSize];
+			// a download that can go on with a range request gives up its
+			// connection and worker, any other holds on to them until it is
+			// resumed
+			if (isReleasedOnPause(dt)) {
+				throw new PausedException();
+			}
 
-		for (int i = 0; i < dts.length; i++) {
-			dts[i] = new DirectDownloadThread(tasks);
-			dts[i].start();
-		}
+			if (dt.isPaused()) {
+				while (dt.isPaused() && !stop) {
+					Thread.sleep(100);
+				}
 
-		logger.info("Downloader started, waiting for tasks.");
-	}
+				dt.advance(DownloadTask.State.RUNNING);
+			}
 
-	public void shutdown() {
-		for (int i = 0; i < dts.length; i++) {
-			if (dts[i] != null) {
-				dts[i].shutdown();
+			// cancel download
+			if (dt.isCancelled()) {
+				close(is, os);
+
+				throw new RuntimeException("Cancelled download");
+			}
+
+			// stop thread
+			if (stop) {
+				close(is, os);
+
+				throw new InterruptedException("Shutdown");
 			}
 		}
-	}
 
-	public void cancelAll() {
-		for (int i = 0; i < dts.length; i++) {
-			if (dts[i] != null) {
-				dts[i].cancel();
+		private boolean isReleasedOnPause(DownloadTask dt) {
+			return dt.isPaused() && resume != null && ranges;
+		}
+
+		/**
+		 * Sums up the bytes read by all the segments of a download, so that
+		 * the listeners see a single increasing total
+		 */
+		private class Progress {
+			private final ListenerDispatcher listener;
+			private long total;
+			private long read = 0;
+
+			Progress(ListenerDispatcher listener, long total) {
+				this.listener = listener;
+				this.total = total;
+			}
+
+			synchronized void setTotal(long total) {
+				this.total = total;
+			}
+
+			synchronized void update(int bytes) {
+				total += bytes;
+				read += bytes;
+				metrics.read(bytes);
+				listener.onUpdate(bytes, total);
+			}
+
+			/**
+			 * Returns the bytes read in this run, not counting resumed ones
+			 */
+			synchronized long getRead() {
+				return read;
 			}
 		}
-	}
 
-	public int getPoolSize() {
-		return poolSize;
-	}
+		/**
+		 * Fetches the missing bytes of a single segment, either into its place
+		 * in the file sink or into a temporary file. The segment is fetched
+		 * once, by a thread of the executor or by the worker, whichever gets
+		 * to it first.
+		 */
+		private class SegmentFetch implements Runnable {
+			private final DownloadTask dt;
+			private final Segment segment;
+			private final FileSink sink;
+			private final DownloadJournal journal;
+			private final Progress progress;
 
-	public void setPoolSize(int poolSize) {
-		this.poolSize = poolSize;
-	}
+			private final AtomicBoolean claimed = new AtomicBoolean();
+			private final CountDownLatch done = new CountDownLatch(1);
 
-	public int getBufferSize() {
-		return bufferSize;
-	}
+			private volatile boolean aborted = false;
+			private Thread runner;
+			private HttpURLConnection conn;
+			private File part;
+			private long partStart;
+			private volatile Exception error;
 
-	public void setBufferSize(int bufferSize) {
-		this.bufferSize = bufferSize;
+			SegmentFetch(DownloadTask dt, Segment segment, FileSink sink, DownloadJournal journal, Progress progress) {
+				this.dt = dt;
+				this.segment = segment;
+				this.sink = sink;
+				this.journal = journal;
+				this.progress = progress;
+			}
+
+			/**
+			 * Fetches the segment on a thread of the executor
+			 */
+			public void run() {
+				if (fetch()) {
+					// the pool thread goes on to other tasks
+					Thread.interrupted();
+				}
+			}
+
+			/**
+			 * Fetches the segment on the calling thread, returns false if it
+			 * was fetched or aborted already
+			 */
+			boolean fetch() {
+				if (!claimed.compareAndSet(false, true)) {
+					return false;
+				}
+
+				synchronized (this) {
+					runner = Thread.currentThread();
+				}
+
+				try {
+					download();
+				} finally {
+					synchronized (this) {
+						runner = null;
+					}
+
+					done.countDown();
+				}
+
+				return true;
+			}
+
+			private void download() {
+				InputStream is = null;
+				OutputStream os = null;
+
+				try {
+					conn = openConnection(dt);
+					conn.setRequestProperty(RANGE, segment.getRange());
+
+					if (journal != null) {
+						conn.setRequestProperty(IF_RANGE, journal.getValidator());
+					}
+
+					conn.connect();
+
+					if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+						int code = conn.getResponseCode();
+						IOException e = code >= HttpURLConnection.HTTP_BAD_REQUEST ? new HttpStatusException(
+								dt.getUrl(), code, conn.getHeaderField(RETRY_AFTER)) : new IOException(
+								segment.getRange() + " not served, got HTTP " + code);
+
+						discard(conn);
+						throw e;
+					}
+
+					is = conn.getInputStream();
+
+					if (sink != null) {
+						os = sink.getOutputStream(segment.getPosition());
+					} else {
+						part = File.createTempFile("jddl", ".part");
+						partStart = segment.getPosition();
+						os = new FileOutputStream(part);
+					}
+
+					copy(dt, is, os, sink, segment, progress, journal, this);
+
+					if (!segment.isComplete()) {
+						throw new IOException("Premature end of segment at byte " + segment.getPosition());
+					}
+				} catch (Exception e) {
+					error = e;
+
+					// don't leave the rest of the range to be drained
+					if (conn != null && is != null) {
+						conn.disconnect();
+					}
+				} finally {
+					try {
+						if (is != null) {
+							is.close();
+						}
+						if (os != null) {
+							os.close();
+						}
+					} catch (IOException e) {
+					}
+				}
+			}
+
+			private boolean isAborted() {
+				return aborted || stop || dt.isCancelled();
+			}
+
+			void checkState() throws IOException, InterruptedException {
+				if (dt.getState() == DownloadTask.State.RUNNING && !aborted && !stop) {
+					return;
+				}
+
+				while (dt.isPaused() && !isAborted() && !isReleasedOnPause(dt)) {
+					Thread.sleep(100);
+				}
+
+				if (isReleasedOnPause(dt)) {
+					throw new IOException("Segment paused");
+				}
+
+				if (isAborted()) {
+					throw new IOException("Segment aborted");
+				}
+			}
+
+			/**
+			 * Waits until the segment is fetched or has failed
+			 */
+			void await() throws InterruptedException {
+				done.await();
+			}
+
+			synchronized void interrupt() {
+				if (runner != null) {
+					runner.interrupt();
+				}
+			}
+
+			/**
+			 * Stops the fetch and waits for it to end, which for a read on a
+			 * built-in connection is with the next chunk or the read timeout
+			 */
+			void abort() {
+				aborted = true;
+
+				if (claimed.compareAndSet(false, true)) {
+					done.countDown();
+				}
+
+				boolean interrupted = false;
+
+				while (true) {
+					try {
+						done.await();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+
+				if (part != null) {
+					part.delete();
+				}
+			}
+
+			void appendTo(OutputStream os) throws IOException {
+				if (part == null) {
+					return;
+				}
+
+				InputStream is = new FileInputStream(part);
+				BufferPool.Buffer buff = buffers.borrow(maxBufferSize, maxBufferSize);
+
+				try {
+					long position = partStart;
+					int res;
+
+					while ((res = is.read(buff.array())) != -1) {
+						os.write(buff.array(), 0, res);
+
+						if (digest != null) {
+							digest.update(buff.array(), 0, res, position);
+						}
+
+						position += res;
+					}
+				} finally {
+					buff.release();
+					is.close();
+				}
+			}
+		}
+
+		private OutputStream getOutputStream(DownloadTask dt) throws IOException {
+			if (dt.getOutputStreamFactory() == null) {
+				return dt.getOutputStream();
+			}
+
+			if (stream == null) {
+				stream = dt.getOutputStreamFactory().open(dt);
+			}
+
+			return stream;
+		}
+
+		/**
+		 * Closes a stream opened from the task's factory, once the download
+		 * has ended either way
+		 */
+		private void closeOutputStream() {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+
+				stream = null;
+			}
+		}
+
+		private void close(InputStream is, OutputStream os) {
+			if (!drained) {
+				conn.disconnect();
+			}
+
+			try {
+				is.close();
+				os.close();
+			} catch (IOException e) {
+			}
+		}
+
+		public void run() {
+			Exception error = null;
+			boolean paused = false;
+			runner = Thread.currentThread();
+
+			// a paused download runs again on the same worker
+			if (attempted == null) {
+				metrics.started(task);
+			}
+
+			try {
+				for (int attempt = 2;; attempt++) {
+					try {
+						download(task);
+						error = null;
+						break;
+					} catch (PausedException e) {
+						logger.info("Pausing download of " + task.getUrl());
+						paused = true;
+						break;
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						error = e;
+					}
+
+					RetryPolicy policy = getRetryPolicy(task);
+					long delay = policy != null ? policy.getDelay(attempt, error) : -1;
+
+					if (delay < 0 || !isRetryable()) {
+						break;
+					}
+
+					logger.info("Retrying download of " + task.getUrl() + " in " + delay + " ms: " + error);
+					metrics.retried(task);
+
+					if (!backoff(delay)) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.info("Stopping download of " + task.getUrl());
+				Thread.currentThread().interrupt();
+				error = e;
+			} finally {
+				synchronized (this) {
+					runner = null;
+
+					// the pool thread goes on to other tasks
+					if (aborted) {
+						Thread.interrupted();
+					}
+				}
+
+				if (paused) {
+					park(this);
+				} else {
+					closeOutputStream();
+
+					boolean cancelled = error != null && (stop || task.isCancelled());
+					long read = progress != null ? progress.getRead() : 0;
+
+					task.finish(error == null ? DownloadTask.State.DONE : cancelled ? DownloadTask.State.CANCELLED
+							: DownloadTask.State.FAILED);
+					metrics.finished(task, read, error == null, cancelled);
+					finished(this);
+
+					if (cancelled && listener != null) {
+						listener.onCancel();
+					} else if (error != null) {
+						logger.log(Level.WARNING, "Download of " + task.getUrl() + " failed", error);
+					}
+
+					complete(read, error, cancelled);
+				}
+
+				exited();
+			}
+		}
+
+		/**
+		 * Ends a paused download that is handed back by a shutdown, a
+		 * resumable file download keeps its journal so that it continues
+		 * when it is run again
+		 */
+		void drop() {
+			closeOutputStream();
+
+			long read = progress != null ? progress.getRead() : 0;
+			metrics.finished(task, read, false, true);
+		}
+
+		/**
+		 * Finishes a download that is cancelled while it is paused
+		 */
+		void abandon() {
+			if (resume != null) {
+				resume.delete();
+			}
+
+			closeOutputStream();
+
+			if (listener != null) {
+				listener.onCancel();
+			}
+
+			long read = progress != null ? progress.getRead() : 0;
+			metrics.finished(task, read, false, true);
+
+			complete(read, null, true);
+		}
+
+		/**
+		 * Returns false if the failed attempt can neither be resumed nor
+		 * started over, which is the case for a stream that already has bytes
+		 * written to it but nothing to resume from
+		 */
+		private boolean isRetryable() {
+			if (stop || task.isCancelled()) {
+				return false;
+			}
+
+			return task.getFile() != null || (resume != null && resume.getNextSegment() != null) || progress == null
+					|| progress.getRead() == 0;
+		}
+
+		/**
+		 * Waits before the next attempt, returns false if the download is
+		 * cancelled or stopped in the meantime
+		 */
+		private boolean backoff(long delay) throws InterruptedException {
+			long end = System.currentTimeMillis() + delay;
+
+			while (!stop && !task.isCancelled()) {
+				long left = end - System.currentTimeMillis();
+
+				if (left <= 0) {
+					return true;
+				}
+
+				Thread.sleep(Math.min(left, 100));
+			}
+
+			return false;
+		}
+
+		/**
+		 * Completes the handle of the task, if it was submitted for one
+		 */
+		private void complete(long read, Exception error, boolean cancelled) {
+			DownloadHandle handle = task.getHandle();
+
+			if (handle == null) {
+				return;
+			}
+
+			if (cancelled) {
+				handle.finish(null, new CancellationException("Download of " + task.getUrl() + " cancelled"));
+			} else if (error != null) {
+				handle.finish(null, error);
+			} else {
+				handle.finish(new DownloadResult(task, conn.getURL(), read, length, task.getMetrics().getDuration(),
+						checksum), null);
+			}
+		}
+
+		public void cancel() {
+			task.setCancelled(true);
+		}
+
+		/**
+		 * Aborts the download from another thread by interrupting the threads
+		 * working on it. This ends a wait for a pause, a retry or a rate
+		 * limit right away, as well as reads that respond to interrupts, such
+		 * as socket reads on virtual threads or the streams of HttpClient
+		 * based transports. A read on a built-in connection of a platform
+		 * thread can't be interrupted, closing its connection from here would
+		 * wait for the read too, so that read ends with the next chunk or the
+		 * read timeout.
+		 */
+		void abort() {
+			synchronized (this) {
+				aborted = true;
+
+				if (runner != null) {
+					runner.interrupt();
+				}
+			}
+
+			List<SegmentFetch> sf = fetches;
+			if (sf != null) {
+				for (SegmentFetch fetch : sf) {
+					fetch.interrupt();
+				}
+			}
+		}
+
+		public void shutdown() {
+			stop = true;
+		}
+	}
+
+	public void download(DownloadTask dt) {
+		submit(dt);
+	}
+
+	/**
+	 * Queues the task for download and returns a handle that completes with
+	 * the result once the download is done, or with the cause if it fails
+	 */
+	public DownloadHandle submit(DownloadTask dt) {
+		DownloadHandle handle = new DownloadHandle(dt);
+
+		synchronized (this) {
+			if (shutdownMode != null) {
+				throw new RejectedExecutionException("Downloader is shut down, download of " + dt.getUrl()
+						+ " rejected");
+			}
+
+			if (isQueueFull()) {
+				throw new RejectedExecutionException("Queue is full, download of " + dt.getUrl() + " rejected");
+			}
+
+			enqueue(dt, handle);
+		}
+
+		dispatch();
+
+		return handle;
+	}
+
+	/**
+	 * Submits the tasks of the iterator one by one, waiting for room whenever
+	 * the queue is full, so only as many tasks exist at a time as the queue
+	 * holds. Tasks are taken from the iterator only once there is room for
+	 * them, e.g. from a {@link Manifest}. Returns the number of tasks
+	 * submitted, which falls short of all of them if the downloader is shut
+	 * down in the meantime. The handle of each task is kept by the task, see
+	 * {@link DownloadTask#getHandle()}.
+	 */
+	public int submitAll(Iterator<? extends DownloadTask> tasks) throws InterruptedException {
+		return submitAll(tasks, null);
+	}
+
+	/**
+	 * Submits the tasks of the iterator like submitAll(tasks), adding the
+	 * callback to the handle of every task, so the outcome of each download
+	 * is reported without holding on to the handles
+	 */
+	public int submitAll(Iterator<? extends DownloadTask> tasks, DownloadCallback callback)
+			throws InterruptedException {
+		int count = 0;
+
+		while (true) {
+			synchronized (this) {
+				while (shutdownMode == null && isQueueFull()) {
+					wait();
+				}
+
+				if (shutdownMode != null) {
+					return count;
+				}
+
+				reserved++;
+			}
+
+			DownloadTask dt;
+
+			try {
+				dt = tasks.hasNext() ? tasks.next() : null;
+			} catch (RuntimeException e) {
+				unreserve();
+				throw e;
+			}
+
+			if (dt == null) {
+				unreserve();
+				return count;
+			}
+
+			synchronized (this) {
+				reserved--;
+
+				if (shutdownMode != null) {
+					throw new RejectedExecutionException("Downloader is shut down, download of " + dt.getUrl()
+							+ " rejected");
+				}
+
+				enqueue(dt, new DownloadHandle(dt));
+			}
+
+			if (callback != null) {
+				dt.getHandle().addCallback(callback);
+			}
+
+			count++;
+			dispatch();
+		}
+	}
+
+	private synchronized void unreserve() {
+		reserved--;
+		notifyAll();
+	}
+
+	private void enqueue(DownloadTask dt, DownloadHandle handle) {
+		dt.setHandle(handle);
+		dt.setDownloader(this);
+		dt.getMetrics().queued();
+		dt.queue();
+
+		scheduler.add(dt);
+	}
+
+	private boolean isQueueFull() {
+		return maxQueued > 0 && scheduler.size() + reserved >= maxQueued;
+	}
+
+	public void run() {
+		logger.info("Initializing downloader...");
+
+		synchronized (this) {
+			if (executor == null) {
+				executor = Executors.newCachedThreadPool(new WorkerThreadFactory());
+				ownExecutor = true;
+			}
+
+			started = true;
+		}
+
+		dispatch();
+
+		logger.info("Downloader started, waiting for tasks.");
+	}
+
+	/**
+	 * Hands queued tasks to the executor while fewer than poolSize downloads
+	 * are running, tasks of hosts that are at their connection limit wait.
+	 * The workers are handed over outside the lock, as an executor may run
+	 * them on the calling thread or block until it has room.
+	 */
+	private void dispatch() {
+		for (DownloadWorker worker : pick()) {
+			try {
+				executor.execute(worker);
+			} catch (RejectedExecutionException e) {
+				logger.warning("Executor rejected download of " + worker.task.getUrl());
+				rejected(worker);
+			}
+		}
+	}
+
+	/**
+	 * Takes the tasks that can start now out of the queue and counts their
+	 * workers as running
+	 */
+	private synchronized List<DownloadWorker> pick() {
+		List<DownloadWorker> picked = new ArrayList<DownloadWorker>();
+
+		while (started && !stopped && workers.size() < poolSize) {
+			DownloadTask dt = scheduler.next();
+
+			if (dt == null) {
+				break;
+			}
+
+			// room for a producer waiting in submitAll()
+			notifyAll();
+
+			DownloadWorker worker = resumed.remove(dt);
+
+			if (dt.isPaused()) {
+				scheduler.release(dt.getUrl(), 1);
+				paused.put(dt, worker);
+				continue;
+			}
+
+			if (worker == null) {
+				worker = new DownloadWorker(dt);
+			}
+
+			workers.add(worker);
+			dt.setWorker(worker);
+			running++;
+			picked.add(worker);
+		}
+
+		return picked;
+	}
+
+	/**
+	 * Undoes the pick of a worker the executor didn't take. Its task goes
+	 * back to the queue, or to the paused tasks, the way it was. A task that
+	 * was cancelled in the meantime is finished, one that the downloader
+	 * can't run any more because it was shut down is handed back like the
+	 * other unstarted tasks.
+	 */
+	private void rejected(DownloadWorker worker) {
+		DownloadTask dt = worker.task;
+		// a worker that ran before holds the state of a paused download
+		DownloadWorker kept = worker.attempted != null ? worker : null;
+		boolean cancelled = false;
+		boolean unstarted = false;
+
+		synchronized (this) {
+			running--;
+			workers.remove(worker);
+			dt.setWorker(null);
+			scheduler.release(dt.getUrl(), 1);
+
+			if (dt.isCancelled()) {
+				cancelled = true;
+			} else if (stopped) {
+				unstarted = true;
+			} else if (dt.isPaused()) {
+				paused.put(dt, kept);
+			} else {
+				if (kept != null) {
+					resumed.put(dt, kept);
+				}
+
+				scheduler.add(dt);
+			}
+
+			notifyAll();
+			terminateIfDone();
+		}
+
+		if (cancelled) {
+			abandon(dt, kept);
+		} else if (unstarted) {
+			if (kept != null) {
+				kept.drop();
+			}
+
+			dt.dequeue();
+			dt.setDownloader(null);
+
+			if (dt.getHandle() != null) {
+				dt.getHandle().finish(null,
+						new CancellationException("Download of " + dt.getUrl() + " not run, downloader shut down"));
+			}
+		}
+	}
+
+	private void finished(DownloadWorker worker) {
+		synchronized (this) {
+			workers.remove(worker);
+			worker.task.setWorker(null);
+			scheduler.release(worker.task.getUrl(), 1);
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Counts off a worker run once it has completed the task's handle
+	 */
+	private synchronized void exited() {
+		running--;
+		terminateIfDone();
+	}
+
+	/**
+	 * Keeps a paused download's worker, with the state it resumes from, while
+	 * the worker thread goes back to the pool
+	 */
+	private void park(DownloadWorker worker) {
+		boolean cancelled;
+
+		synchronized (this) {
+			workers.remove(worker);
+			worker.task.setWorker(null);
+			scheduler.release(worker.task.getUrl(), 1);
+
+			// cancelled while the worker was on its way here
+			cancelled = worker.task.isCancelled();
+
+			if (cancelled) {
+				// finished below
+			} else if (worker.task.isPaused()) {
+				paused.put(worker.task, worker);
+			} else {
+				// resumed before the worker got here
+				resumed.put(worker.task, worker);
+				scheduler.add(worker.task);
+			}
+		}
+
+		if (cancelled) {
+			abandon(worker.task, worker);
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Cancels a task, a paused download is finished right away. This is the
+	 * same as cancelling the task itself.
+	 */
+	public void cancel(DownloadTask dt) {
+		dt.setCancelled(true);
+	}
+
+	/**
+	 * Finishes a task that is cancelled while no worker runs it, because it
+	 * is paused or queued to resume. Its journal is deleted, its stream
+	 * closed and its handle completed.
+	 */
+	void cancelled(DownloadTask dt) {
+		DownloadWorker worker;
+
+		synchronized (this) {
+			if (paused.containsKey(dt)) {
+				worker = paused.remove(dt);
+			} else if (resumed.containsKey(dt) && scheduler.remove(dt)) {
+				worker = resumed.remove(dt);
+				notifyAll();
+			} else {
+				return;
+			}
+		}
+
+		abandon(dt, worker);
+	}
+
+	/**
+	 * Pauses a task. A queued task is taken out of the queue. A running
+	 * download stops after its next read, records how far it got and gives up
+	 * its connection and worker thread, so paused downloads take no threads.
+	 * If the server doesn't support range requests, and the download couldn't
+	 * continue where it stopped, it holds on to its connection instead.
+	 */
+	public synchronized void pause(DownloadTask dt) {
+		dt.pause();
+
+		if (scheduler.remove(dt)) {
+			paused.put(dt, resumed.remove(dt));
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Resumes a paused task. A download that gave up its worker is queued
+	 * again and continues from where it stopped with a range request.
+	 */
+	public void resume(DownloadTask dt) {
+		DownloadWorker worker = null;
+		boolean cancelled = false;
+
+		synchronized (this) {
+			dt.unpause();
+
+			if (!paused.containsKey(dt)) {
+				return;
+			}
+
+			worker = paused.remove(dt);
+
+			if (dt.isCancelled()) {
+				cancelled = true;
+			} else {
+				if (worker != null) {
+					resumed.put(dt, worker);
+				}
+
+				scheduler.add(dt);
+			}
+		}
+
+		if (cancelled) {
+			abandon(dt, worker);
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Returns the number of paused downloads that are not holding a worker
+	 */
+	public synchronized int getPausedCount() {
+		return paused.size();
+	}
+
+	private void abandon(DownloadTask dt, DownloadWorker worker) {
+		if (worker != null) {
+			worker.abandon();
+		} else if (dt.getHandle() != null) {
+			dt.getHandle().finish(null, new CancellationException("Download of " + dt.getUrl() + " cancelled"));
+		}
+	}
+
+	/**
+	 * Stops the running downloads and starts no more, same as
+	 * shutdown(ShutdownMode.ABORT)
+	 */
+	public void shutdown() {
+		shutdown(ShutdownMode.ABORT);
+	}
+
+	/**
+	 * Shuts the downloader down, no more tasks can be submitted. DRAIN runs
+	 * the queue dry, FINISH_ACTIVE only lets the running downloads finish and
+	 * ABORT stops them at once, interrupting their threads. Tasks that are not
+	 * going to be run, the queued ones unless draining and the paused ones,
+	 * are taken back to NEW and returned, so they can be saved and submitted
+	 * again later. Their handles complete as cancelled. A downloader that
+	 * isn't running yet drains once it is started. Calling it again can move
+	 * on to a harsher mode, e.g. to abort a drain that takes too long.
+	 * See {@link #awaitTermination(long, TimeUnit)} to wait for the end.
+	 */
+	public List<DownloadTask> shutdown(ShutdownMode mode) {
+		List<DownloadTask> unstarted = new ArrayList<DownloadTask>();
+		List<DownloadWorker> dropped = new ArrayList<DownloadWorker>();
+
+		synchronized (this) {
+			if (shutdownMode == null || mode.compareTo(shutdownMode) > 0) {
+				shutdownMode = mode;
+			}
+
+			if (shutdownMode != ShutdownMode.DRAIN) {
+				stopped = true;
+
+				for (DownloadTask dt : scheduler.drain()) {
+					resumed.remove(dt);
+					unstarted.add(dt);
+				}
+			}
+
+			for (Map.Entry<DownloadTask, DownloadWorker> e : paused.entrySet()) {
+				unstarted.add(e.getKey());
+
+				if (e.getValue() != null) {
+					dropped.add(e.getValue());
+				}
+			}
+
+			paused.clear();
+
+			if (shutdownMode == ShutdownMode.ABORT) {
+				for (DownloadWorker worker : workers) {
+					worker.shutdown();
+					worker.abort();
+				}
+			}
+
+			if (ownExecutor && stopped) {
+				((ExecutorService) executor).shutdown();
+			}
+
+			// wakes producers waiting in submitAll()
+			notifyAll();
+			terminateIfDone();
+		}
+
+		for (DownloadWorker worker : dropped) {
+			worker.drop();
+		}
+
+		for (DownloadTask dt : unstarted) {
+			dt.dequeue();
+			dt.setDownloader(null);
+
+			if (dt.getHandle() != null) {
+				dt.getHandle().finish(null,
+						new CancellationException("Download of " + dt.getUrl() + " not run, downloader shut down"));
+			}
+		}
+
+		return unstarted;
+	}
+
+	/**
+	 * Waits until the downloader has shut down and all its downloads have
+	 * ended, returns false if the timeout elapses first
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		ExecutorService own;
+
+		synchronized (this) {
+			while (!isTerminated()) {
+				long left = end - System.nanoTime();
+
+				if (left <= 0) {
+					return false;
+				}
+
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+
+			own = ownExecutor ? (ExecutorService) executor : null;
+		}
+
+		return own == null || own.awaitTermination(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	public synchronized boolean isShutdown() {
+		return shutdownMode != null;
+	}
+
+	/**
+	 * Returns true once the downloader is shut down and no download is
+	 * running, or queued when draining
+	 */
+	public synchronized boolean isTerminated() {
+		return shutdownMode != null && running == 0 && (stopped || scheduler.size() == 0);
+	}
+
+	private synchronized void terminateIfDone() {
+		if (isTerminated()) {
+			if (ownExecutor) {
+				((ExecutorService) executor).shutdown();
+			}
+
+			notifyAll();
+		}
+	}
+
+	public void cancelAll() {
+		List<DownloadTask> tasks;
+
+		synchronized (this) {
+			tasks = scheduler.getTasks();
+			tasks.addAll(paused.keySet());
+
+			for (DownloadWorker worker : workers) {
+				tasks.add(worker.task);
+			}
+		}
+
+		for (DownloadTask dt : tasks) {
+			dt.setCancelled(true);
+		}
+	}
+
+	private RetryPolicy getRetryPolicy(DownloadTask dt) {
+		RetryPolicy policy = dt.getRetryPolicy() != null ? dt.getRetryPolicy() : retryPolicy;
+		return policy != null && policy.getMaxAttempts() > 1 ? policy : null;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Sets how failed downloads are retried, tasks can override it with a
+	 * policy of their own. A retry resumes from the last byte written where
+	 * the server allows it, otherwise file downloads start over. By default
+	 * downloads are not retried.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Returns the number of downloads running right now
+	 */
+	public synchronized int getActiveCount() {
+		return workers.size();
+	}
+
+	/**
+	 * Returns the number of downloads waiting to be started
+	 */
+	public int getQueuedCount() {
+		return scheduler.size();
+	}
+
+	public synchronized int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Limits how many tasks may wait in the queue. Beyond it submit() rejects
+	 * tasks and submitAll() waits for room. Zero, the default, means no
+	 * limit. Paused tasks don't count against it. A resumed task is queued
+	 * again even if the queue is full, and counts against the limit until it
+	 * starts.
+	 */
+	public void setMaxQueued(int maxQueued) {
+		synchronized (this) {
+			this.maxQueued = maxQueued;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the counters and timings of the downloads of this downloader,
+	 * see {@link DownloadMetrics#registerMBean(String)} to watch them over
+	 * JMX
+	 */
+	public DownloadMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Sets the number of downloads that run at the same time, this can be
+	 * changed while the downloader is running
+	 */
+	public void setPoolSize(int poolSize) {
+		synchronized (this) {
+			this.poolSize = poolSize;
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Changes the priority of a queued task, so it is started ahead of or
+	 * after the other queued tasks. Returns false if the task is not queued
+	 * (any more), in which case only its priority attribute is updated.
+	 */
+	public boolean reprioritize(DownloadTask dt, int priority) {
+		return scheduler.reprioritize(dt, priority);
+	}
+
+	public long getPriorityAging() {
+		return scheduler.getAging();
+	}
+
+	/**
+	 * Sets how long, in milliseconds, a queued task waits before it is
+	 * treated as one priority level higher, which keeps a steady stream of
+	 * urgent tasks from starving the rest
+	 */
+	public void setPriorityAging(long aging) {
+		scheduler.setAging(aging);
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return scheduler.getMaxPerHost();
+	}
+
+	/**
+	 * Sets how many connections, including the segments of segmented
+	 * downloads, may be open to a single host at the same time. Tasks for a
+	 * host at its limit wait while tasks for other hosts go ahead. Zero, the
+	 * default, means no limit.
+	 */
+	public void setMaxConnectionsPerHost(int max) {
+		scheduler.setMaxPerHost(max);
+		dispatch();
+	}
+
+	public int getMaxConnectionsPerHost(String host) {
+		return scheduler.getMaxPerHost(host);
+	}
+
+	/**
+	 * Sets the connection limit of a single host, overriding the limit for
+	 * all hosts
+	 */
+	public void setMaxConnectionsPerHost(String host, int max) {
+		scheduler.setMaxPerHost(host, max);
+		dispatch();
+	}
+
+	public long getMaxBytesPerSecond() {
+		return rateLimiter.getRate();
+	}
+
+	/**
+	 * Limits the combined download rate of all tasks, zero means no limit.
+	 * This can be changed while downloads are running.
+	 */
+	public void setMaxBytesPerSecond(long rate) {
+		rateLimiter.setRate(rate);
+	}
+
+	public long getMaxBytesPerSecond(String host) {
+		RateLimiter limiter = getHostRateLimiter(host.toLowerCase());
+		return limiter != null ? limiter.getRate() : 0;
+	}
+
+	/**
+	 * Limits the combined download rate of all tasks from a host, zero means
+	 * no limit. This can be changed while downloads are running.
+	 */
+	public void setMaxBytesPerSecond(String host, long rate) {
+		synchronized (hostRateLimiters) {
+			RateLimiter limiter = hostRateLimiters.get(host.toLowerCase());
+
+			if (limiter == null) {
+				hostRateLimiters.put(host.toLowerCase(), new RateLimiter(rate));
+			} else {
+				limiter.setRate(rate);
+			}
+		}
+	}
+
+	private RateLimiter getHostRateLimiter(String host) {
+		synchronized (hostRateLimiters) {
+			return hostRateLimiters.get(host);
+		}
+	}
+
+	public synchronized Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor the downloads run on, it has to be set before the
+	 * downloader is started. By default a cached thread pool is used.
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		if (started) {
+			throw new IllegalStateException("Downloader already started");
+		}
+
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	/**
+	 * Sets the size read buffers may grow to when data arrives faster than
+	 * it is written, set it to the buffer size to keep buffers fixed
+	 */
+	public void setMaxBufferSize(int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	public Executor getListenerExecutor() {
+		return listenerExecutor;
+	}
+
+	/**
+	 * Delivers the listener events on the given executor instead of the
+	 * downloading thread, e.g. the Swing event thread. The events of a task
+	 * are delivered one at a time and in order. By default the listeners are
+	 * called on the downloading thread.
+	 */
+	public void setListenerExecutor(Executor listenerExecutor) {
+		this.listenerExecutor = listenerExecutor;
+	}
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * Sets the least time in milliseconds between two onUpdate calls of a
+	 * task, the bytes read in between are reported by the next call. Zero,
+	 * the default, reports every read unless a progress threshold is set.
+	 */
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	public long getProgressThreshold() {
+		return progressThreshold;
+	}
+
+	/**
+	 * Sets the bytes to read before onUpdate is called regardless of the
+	 * progress interval
+	 */
+	public void setProgressThreshold(long progressThreshold) {
+		this.progressThreshold = progressThreshold;
+	}
+
+	public int getMinSegmentSize() {
+		return minSegmentSize;
+	}
+
+	/**
+	 * Sets the smallest byte range a segmented download is split into, files
+	 * smaller than twice this size are always downloaded over a single
+	 * connection
+	 */
+	public void setMinSegmentSize(int minSegmentSize) {
+		this.minSegmentSize = minSegmentSize;
+	}
+
+	/**
+	 * Thrown out of a download that stops because it is paused
+	 */
+	private static class PausedException extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "jddl-worker-" + count.incrementAndGet());
+		}
 	}
 }
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+/**
+ * Told the outcome of a download submitted with {@link
+ * DirectDownloader#submit(DownloadTask)}. It is called on the thread that
+ * finished the download, or right away if the download is already done when the
+ * callback is added.
+ */
+public interface DownloadCallback {
+	public void onSuccess(DownloadResult result);
+
+	/**
+	 * Called with the cause if the download failed, or with a
+	 * CancellationException if it was cancelled
+	 */
+	public void onFailure(Throwable cause);
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the checksum of a download over the bytes in file order as they are
+ * copied. Bytes that arrive ahead of the position hashed so far, from the later
+ * segments of a segmented file download or the part of a file written by an
+ * earlier run, are skipped and read back from the file at the end, so only
+ * those cost a second pass.
+ */
+class DownloadDigest {
+	private static final int READ_SIZE = 64 * 1024;
+
+	private final MessageDigest digest;
+	private final Checksum checksum;
+	private long position = 0;
+
+	/**
+	 * Takes a MessageDigest algorithm such as SHA-256 or MD5, or one of
+	 * CRC32, CRC32C and ADLER32. CRC32C needs Java 9 or later.
+	 */
+	DownloadDigest(String algorithm) throws NoSuchAlgorithmException {
+		String name = algorithm.toUpperCase();
+
+		if (name.equals("CRC32")) {
+			checksum = new CRC32();
+			digest = null;
+		} else if (name.equals("ADLER32")) {
+			checksum = new Adler32();
+			digest = null;
+		} else if (name.equals("CRC32C")) {
+			try {
+				checksum = (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+			} catch (Exception e) {
+				throw new NoSuchAlgorithmException("CRC32C not available before Java 9");
+			}
+			digest = null;
+		} else {
+			digest = MessageDigest.getInstance(algorithm);
+			checksum = null;
+		}
+	}
+
+	/**
+	 * Hashes the bytes written at the given file position, as far as they
+	 * carry on from the bytes hashed so far
+	 */
+	synchronized void update(byte[] b, int off, int len, long at) {
+		if (at > position || at + len <= position) {
+			return;
+		}
+
+		int skip = (int) (position - at);
+		update(b, off + skip, len - skip);
+	}
+
+	/**
+	 * Reads the bytes the digest skipped back from the file, up to the given
+	 * position
+	 */
+	synchronized void catchUp(FileSink sink, long end) throws IOException {
+		if (position >= end) {
+			return;
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate((int) Math.min(end - position, READ_SIZE));
+
+		while (position < end) {
+			bb.clear();
+			bb.limit((int) Math.min(end - position, bb.capacity()));
+
+			if (sink.read(bb, position) < 0) {
+				throw new IOException("Unexpected end of file at byte " + position);
+			}
+
+			bb.flip();
+			update(bb.array(), bb.arrayOffset(), bb.remaining(), position);
+		}
+	}
+
+	synchronized long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the checksum of the bytes hashed so far as lower case hex, this
+	 * finishes the digest
+	 */
+	synchronized String getValue() {
+		if (checksum != null) {
+			String hex = Long.toHexString(checksum.getValue());
+			return "00000000".substring(hex.length()) + hex;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return sb.toString();
+	}
+
+	private void update(byte[] b, int off, int len) {
+		if (checksum != null) {
+			checksum.update(b, off, len);
+		} else {
+			digest.update(b, off, len);
+		}
+
+		position += len;
+	}
+}
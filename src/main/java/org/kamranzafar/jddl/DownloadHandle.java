@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pending result of a submitted download. Callers can wait for it like any
+ * other future, or add callbacks and not hold up a thread at all.
+ */
+public class DownloadHandle implements Future<DownloadResult> {
+	private static Logger logger = Logger.getLogger(DownloadHandle.class.getName());
+
+	private final DownloadTask task;
+	private final List<DownloadCallback> callbacks = new ArrayList<DownloadCallback>();
+
+	private boolean done = false;
+	private DownloadResult result;
+	private Throwable cause;
+
+	DownloadHandle(DownloadTask task) {
+		this.task = task;
+	}
+
+	public DownloadTask getTask() {
+		return task;
+	}
+
+	/**
+	 * Adds a callback that is told the outcome of the download, straight away
+	 * if it is already done
+	 */
+	public DownloadHandle addCallback(DownloadCallback callback) {
+		synchronized (this) {
+			if (!done) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+
+		call(callback);
+		return this;
+	}
+
+	/**
+	 * Cancels the download, whether it is still queued or already running.
+	 * Returns false if the task has already finished, or was cancelled before,
+	 * even if the handle is not completed yet.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!task.cancel()) {
+			return false;
+		}
+
+		// the downloader may have completed it already, e.g. for a paused task
+		finish(null, new CancellationException("Download of " + task.getUrl() + " cancelled"));
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cause instanceof CancellationException;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	public synchronized DownloadResult get() throws InterruptedException, ExecutionException {
+		while (!done) {
+			wait();
+		}
+
+		return getResult();
+	}
+
+	public synchronized DownloadResult get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!done) {
+			long left = end - System.nanoTime();
+
+			if (left <= 0) {
+				throw new TimeoutException();
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+
+		return getResult();
+	}
+
+	private DownloadResult getResult() throws ExecutionException {
+		if (cause instanceof CancellationException) {
+			throw (CancellationException) cause;
+		} else if (cause != null) {
+			throw new ExecutionException(cause);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Completes the handle with a result or a cause, returns false if it is
+	 * already done
+	 */
+	boolean finish(DownloadResult result, Throwable cause) {
+		List<DownloadCallback> notify;
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+
+			this.done = true;
+			this.result = result;
+			this.cause = cause;
+
+			notifyAll();
+
+			notify = new ArrayList<DownloadCallback>(callbacks);
+			callbacks.clear();
+		}
+
+		for (DownloadCallback callback : notify) {
+			call(callback);
+		}
+
+		return true;
+	}
+
+	private void call(DownloadCallback callback) {
+		try {
+			if (cause == null) {
+				callback.onSuccess(result);
+			} else {
+				callback.onFailure(cause);
+			}
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Download callback failed", e);
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sidecar file that records how much of a file download has safely reached the
+ * disk, so that an interrupted download can be picked up with a Range request
+ * the next time it is run. The file data is forced to disk before each
+ * checkpoint is written, and the journal is removed once the download
+ * completes. A journal without a file is only kept in memory, for a retry to
+ * resume from.
+ */
+class DownloadJournal {
+	public static final String SUFFIX = ".jddl";
+
+	private static final String ETAG = "ETag";
+	private static final String LAST_MODIFIED = "Last-Modified";
+	private static final String CONTENT_RANGE = "Content-Range";
+
+	private static final long CHECKPOINT_INTERVAL = 1000;
+
+	private final File journal;
+	private final String url;
+	private final long length;
+	private final String etag;
+	private final String lastModified;
+	private final List<Segment> segments;
+
+	private long lastCheckpoint = System.currentTimeMillis();
+	private boolean deleted = false;
+
+	private DownloadJournal(File file, String url, long length, String etag, String lastModified,
+			List<Segment> segments) {
+		this.journal = file != null ? new File(file.getPath() + SUFFIX) : null;
+		this.url = url;
+		this.length = length;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.segments = segments;
+	}
+
+	/**
+	 * Starts a journal for a fresh download, returns null if the server gave
+	 * nothing to validate a later resume against. The journal is kept in
+	 * memory only if the file is null.
+	 */
+	public static DownloadJournal create(File file, URL url, HttpURLConnection conn, long length,
+			List<Segment> segments) throws IOException {
+		String etag = conn.getHeaderField(ETAG);
+		String lastModified = conn.getHeaderField(LAST_MODIFIED);
+
+		// weak tags can't be used with If-Range
+		if (etag != null && etag.startsWith("W/")) {
+			etag = null;
+		}
+
+		if (length <= 0 || (etag == null && lastModified == null)) {
+			return null;
+		}
+
+		DownloadJournal dj = new DownloadJournal(file, url.toString(), length, etag, lastModified, segments);
+		dj.save(null);
+
+		return dj;
+	}
+
+	/**
+	 * Loads the journal left behind by an earlier download of the url into
+	 * the file, returns null if there is none or it can't be used
+	 */
+	public static DownloadJournal load(File file, URL url) {
+		File journal = new File(file.getPath() + SUFFIX);
+
+		if (!journal.exists() || !file.exists()) {
+			return null;
+		}
+
+		Properties props = new Properties();
+
+		try {
+			InputStream is = new FileInputStream(journal);
+			try {
+				props.load(is);
+			} finally {
+				is.close();
+			}
+
+			if (!url.toString().equals(props.getProperty("url"))) {
+				return null;
+			}
+
+			List<Segment> segments = new ArrayList<Segment>();
+			int count = Integer.parseInt(props.getProperty("segments"));
+
+			for (int i = 0; i < count; i++) {
+				String[] s = props.getProperty("segment." + i).split(",");
+				segments.add(new Segment(Long.parseLong(s[0]), Long.parseLong(s[1]), Long.parseLong(s[2])));
+
+				// the file was truncated behind our back
+				if (file.length() < segments.get(i).getPosition()) {
+					return null;
+				}
+			}
+
+			return new DownloadJournal(file, props.getProperty("url"), Long.parseLong(props.getProperty("length")),
+					props.getProperty("etag"), props.getProperty("lastModified"), segments);
+		} catch (Exception e) {
+			// unreadable or half written journal, start over
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the value for the If-Range header, so the server only sends
+	 * the remaining bytes if the file hasn't changed
+	 */
+	public String getValidator() {
+		return etag != null ? etag : lastModified;
+	}
+
+	/**
+	 * Checks that the server answered a resume request with the missing
+	 * bytes of the same file
+	 */
+	public boolean isResumed(HttpURLConnection conn, Segment segment) throws IOException {
+		if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+			return false;
+		}
+
+		String et = conn.getHeaderField(ETAG);
+		if (etag != null && et != null && !etag.equals(et)) {
+			return false;
+		}
+
+		String cr = conn.getHeaderField(CONTENT_RANGE);
+		return cr != null && cr.trim().startsWith("bytes " + segment.getPosition() + "-")
+				&& cr.trim().endsWith("/" + length);
+	}
+
+	/**
+	 * Returns the first segment that still has bytes missing
+	 */
+	public Segment getNextSegment() {
+		for (Segment segment : segments) {
+			if (!segment.isComplete()) {
+				return segment;
+			}
+		}
+
+		return null;
+	}
+
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Saves the segment positions if the last checkpoint is old enough
+	 */
+	public synchronized void checkpoint(FileSink sink) throws IOException {
+		if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+			save(sink);
+		}
+	}
+
+	/**
+	 * Forces the written bytes to disk and then records the segment
+	 * positions, the positions are read first so the journal never claims
+	 * bytes that are not yet on the disk
+	 */
+	public synchronized void save(FileSink sink) throws IOException {
+		if (deleted || journal == null) {
+			return;
+		}
+
+		Properties props = new Properties();
+		props.setProperty("url", url);
+		props.setProperty("length", String.valueOf(length));
+		props.setProperty("segments", String.valueOf(segments.size()));
+
+		if (etag != null) {
+			props.setProperty("etag", etag);
+		}
+		if (lastModified != null) {
+			props.setProperty("lastModified", lastModified);
+		}
+
+		for (int i = 0; i < segments.size(); i++) {
+			Segment s = segments.get(i);
+			props.setProperty("segment." + i, s.getStart() + "," + s.getEnd() + "," + s.getPosition());
+		}
+
+		if (sink != null) {
+			sink.force();
+		}
+
+		File tmp = new File(journal.getPath() + ".tmp");
+		FileOutputStream os = new FileOutputStream(tmp);
+
+		try {
+			props.store(os, null);
+			os.getFD().sync();
+		} finally {
+			os.close();
+		}
+
+		if (!tmp.renameTo(journal)) {
+			journal.delete();
+			if (!tmp.renameTo(journal)) {
+				throw new IOException("Unable to write " + journal);
+			}
+		}
+
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	public synchronized void delete() {
+		deleted = true;
+
+		if (journal != null) {
+			journal.delete();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of all the downloads of a downloader. The histograms
+ * are updated once per download, only the byte counter is updated on every
+ * read. Times are in milliseconds.
+ */
+public class DownloadMetrics {
+	private final DirectDownloader downloader;
+
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final Histogram queueWait = new Histogram();
+	private final Histogram connectTime = new Histogram();
+	private final Histogram tlsConnectTime = new Histogram();
+	private final Histogram timeToFirstByte = new Histogram();
+	private final Histogram duration = new Histogram();
+	private final Histogram bytesPerSecond = new Histogram();
+
+	private final Map<String, HostMetrics> hosts = new HashMap<String, HostMetrics>();
+
+	private ObjectName objectName;
+
+	DownloadMetrics(DirectDownloader downloader) {
+		this.downloader = downloader;
+	}
+
+	/**
+	 * Counters of the downloads from a single host
+	 */
+	public static class HostMetrics {
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getRetries() {
+			return retries.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+	}
+
+	void started(DownloadTask dt) {
+		dt.getMetrics().started();
+		queueWait.update(dt.getMetrics().getQueueWait());
+		started.incrementAndGet();
+	}
+
+	void connected(DownloadTask dt, long nanos) {
+		dt.getMetrics().connected(nanos);
+
+		if ("https".equalsIgnoreCase(dt.getUrl().getProtocol())) {
+			tlsConnectTime.update(dt.getMetrics().getConnectTime());
+		} else {
+			connectTime.update(dt.getMetrics().getConnectTime());
+		}
+	}
+
+	void firstByte(DownloadTask dt, long nanos) {
+		dt.getMetrics().firstByte(nanos);
+		timeToFirstByte.update(dt.getMetrics().getTimeToFirstByte());
+	}
+
+	void read(int count) {
+		bytes.addAndGet(count);
+	}
+
+	void retried(DownloadTask dt) {
+		dt.getMetrics().retried();
+		retries.incrementAndGet();
+		getHost(dt).retries.incrementAndGet();
+	}
+
+	/**
+	 * Records the end of a download, the outcome is one of completed, failed
+	 * or cancelled
+	 */
+	void finished(DownloadTask dt, long read, boolean ok, boolean cancel) {
+		TaskMetrics tm = dt.getMetrics();
+		HostMetrics host = getHost(dt);
+
+		tm.finished(read);
+		host.bytes.addAndGet(read);
+
+		if (cancel) {
+			cancelled.incrementAndGet();
+		} else if (ok) {
+			completed.incrementAndGet();
+			host.completed.incrementAndGet();
+			duration.update(tm.getDuration());
+			bytesPerSecond.update(tm.getBytesPerSecond());
+		} else {
+			failed.incrementAndGet();
+			host.failed.incrementAndGet();
+		}
+	}
+
+	private HostMetrics getHost(DownloadTask dt) {
+		String host = TaskScheduler.getHost(dt.getUrl());
+
+		synchronized (hosts) {
+			HostMetrics hm = hosts.get(host);
+
+			if (hm == null) {
+				hm = new HostMetrics();
+				hosts.put(host, hm);
+			}
+
+			return hm;
+		}
+	}
+
+	public long getStarted() {
+		return started.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Returns the bytes read by all downloads so far, including the ones
+	 * still running
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public int getActiveWorkers() {
+		return downloader.getActiveCount();
+	}
+
+	public int getQueued() {
+		return downloader.getQueuedCount();
+	}
+
+	public Histogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Returns the connect times of plain http connections
+	 */
+	public Histogram getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the connect times of https connections, which include the TLS
+	 * handshake. HttpURLConnection doesn't time the handshake on its own, the
+	 * difference to the plain connect time is the closest estimate.
+	 */
+	public Histogram getTlsConnectTime() {
+		return tlsConnectTime;
+	}
+
+	public Histogram getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	/**
+	 * Returns the durations of the completed downloads
+	 */
+	public Histogram getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the average transfer rates of the completed downloads
+	 */
+	public Histogram getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Returns the counters of the downloads from the given host, or null if
+	 * nothing was downloaded from it yet
+	 */
+	public HostMetrics getHostMetrics(String host) {
+		synchronized (hosts) {
+			return hosts.get(host.toLowerCase());
+		}
+	}
+
+	/**
+	 * Returns all the metrics as name and value pairs, e.g. for logging. The
+	 * names are the ones the MBean uses for its attributes.
+	 */
+	public Map<String, Number> getSnapshot() {
+		Map<String, Number> snapshot = new LinkedHashMap<String, Number>();
+
+		snapshot.put("started", getStarted());
+		snapshot.put("completed", getCompleted());
+		snapshot.put("failed", getFailed());
+		snapshot.put("cancelled", getCancelled());
+		snapshot.put("retries", getRetries());
+		snapshot.put("bytes", getBytes());
+		snapshot.put("activeWorkers", getActiveWorkers());
+		snapshot.put("queued", getQueued());
+
+		put(snapshot, "queueWait", queueWait);
+		put(snapshot, "connectTime", connectTime);
+		put(snapshot, "tlsConnectTime", tlsConnectTime);
+		put(snapshot, "timeToFirstByte", timeToFirstByte);
+		put(snapshot, "duration", duration);
+		put(snapshot, "bytesPerSecond", bytesPerSecond);
+
+		Map<String, HostMetrics> copy;
+		synchronized (hosts) {
+			copy = new TreeMap<String, HostMetrics>(hosts);
+		}
+
+		for (Map.Entry<String, HostMetrics> e : copy.entrySet()) {
+			String prefix = "host." + e.getKey() + ".";
+			HostMetrics hm = e.getValue();
+
+			snapshot.put(prefix + "completed", hm.getCompleted());
+			snapshot.put(prefix + "failed", hm.getFailed());
+			snapshot.put(prefix + "retries", hm.getRetries());
+			snapshot.put(prefix + "bytes", hm.getBytes());
+		}
+
+		return snapshot;
+	}
+
+	private static void put(Map<String, Number> snapshot, String name, Histogram histogram) {
+		snapshot.put(name + ".count", histogram.getCount());
+		snapshot.put(name + ".mean", histogram.getMean());
+		snapshot.put(name + ".max", histogram.getMax());
+		snapshot.put(name + ".p50", histogram.getPercentile(0.5));
+		snapshot.put(name + ".p99", histogram.getPercentile(0.99));
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under the given
+	 * name, e.g. "org.kamranzafar.jddl:type=DirectDownloader,name=main", so
+	 * they can be watched from JConsole or any other JMX client
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		unregisterMBean();
+
+		ObjectName on = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), on);
+		objectName = on;
+	}
+
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+
+			objectName = null;
+		}
+	}
+}
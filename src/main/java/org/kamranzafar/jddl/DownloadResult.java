@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * Outcome of a completed download
+ */
+public class DownloadResult {
+	private final DownloadTask task;
+	private final URL url;
+	private final long bytes;
+	private final long length;
+	private final long duration;
+	private final String checksum;
+
+	DownloadResult(DownloadTask task, URL url, long bytes, long length, long duration, String checksum) {
+		this.task = task;
+		this.url = url;
+		this.bytes = bytes;
+		this.length = length;
+		this.duration = duration;
+		this.checksum = checksum;
+	}
+
+	public DownloadTask getTask() {
+		return task;
+	}
+
+	/**
+	 * Returns the URL the file was downloaded from, after following any
+	 * redirects
+	 */
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns the file downloaded into, or null for downloads into a stream
+	 */
+	public File getFile() {
+		return task.getFile();
+	}
+
+	/**
+	 * Returns the bytes read by this download, resumed downloads don't count
+	 * the bytes read by earlier runs
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the size of the file, or -1 if the server didn't report it
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns how long the download took in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the checksum of the file in hex, computed with the algorithm
+	 * set on the task, or null if none was set
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+}
@@ -17,23 +17,50 @@
 
 package org.kamranzafar.jddl;
 
+import java.io.File;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author kamran
  * 
  */
 public class DownloadTask {
+	/**
+	 * Lifecycle of a task, CANCELLED, FAILED and DONE are final until the task
+	 * is submitted again
+	 */
+	public enum State {
+		NEW, QUEUED, CONNECTING, RUNNING, PAUSED, CANCELLED, FAILED, DONE;
+
+		public boolean isFinal() {
+			return this == CANCELLED || this == FAILED || this == DONE;
+		}
+	}
+
 	private URL url;
 	private OutputStream outputStream;
+	private OutputStreamFactory outputStreamFactory;
+	private File file;
+	private boolean preallocate = false;
+	private boolean resumable = false;
 	private final List<DownloadListener> listeners = new ArrayList<DownloadListener>();
 
-	private boolean paused = false;
-	private boolean cancelled = false;
+	private final AtomicReference<State> state = new AtomicReference<State>(State.NEW);
+	private volatile DirectDownloader.DownloadWorker worker;
+	private volatile DirectDownloader downloader;
 	private int timeout = 15000;
+	private int segments = 1;
+	private volatile int priority = 0;
+	private final RateLimiter rateLimiter = new RateLimiter(0);
+	private final TaskMetrics metrics = new TaskMetrics();
+	private volatile DownloadHandle handle;
+	private RetryPolicy retryPolicy;
+	private String checksumAlgorithm;
+	private String checksum;
 
 	private Authentication authentication;
 
@@ -48,6 +75,31 @@ public class DownloadTask {
 		listeners.add(listener);
 	}
 
+	/**
+	 * Downloads into a stream that is only opened when the transfer starts
+	 */
+	public DownloadTask(URL url, OutputStreamFactory outputStreamFactory) {
+		this.url = url;
+		this.outputStreamFactory = outputStreamFactory;
+	}
+
+	public DownloadTask(URL url, OutputStreamFactory outputStreamFactory, DownloadListener listener) {
+		this.url = url;
+		this.outputStreamFactory = outputStreamFactory;
+		listeners.add(listener);
+	}
+
+	public DownloadTask(URL url, File file) {
+		this.url = url;
+		this.file = file;
+	}
+
+	public DownloadTask(URL url, File file, DownloadListener listener) {
+		this.url = url;
+		this.file = file;
+		listeners.add(listener);
+	}
+
 	public URL getUrl() {
 		return url;
 	}
@@ -66,6 +118,63 @@ public class DownloadTask {
 		return this;
 	}
 
+	public OutputStreamFactory getOutputStreamFactory() {
+		return outputStreamFactory;
+	}
+
+	/**
+	 * Opens the output stream through the factory when the transfer starts,
+	 * instead of holding a stream open while the task waits in the queue. It
+	 * takes the place of an output stream that is set as well.
+	 */
+	public DownloadTask setOutputStreamFactory(OutputStreamFactory outputStreamFactory) {
+		this.outputStreamFactory = outputStreamFactory;
+		return this;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Downloads straight into the given file instead of an output stream,
+	 * which lets segments write their ranges in parallel
+	 */
+	public DownloadTask setFile(File file) {
+		this.file = file;
+		return this;
+	}
+
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
+	/**
+	 * Reserves the disk space for the full content length of a file download,
+	 * if the server reports it for a HEAD request, by filling the file with
+	 * zeros before the download connects. This finds a full disk up front and
+	 * keeps the file in few pieces, at the cost of an extra request and
+	 * writing the file twice.
+	 */
+	public DownloadTask setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+		return this;
+	}
+
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	/**
+	 * Keeps a journal next to the file while downloading, so that an
+	 * interrupted download continues from where it stopped the next time the
+	 * task is run, provided the file on the server is unchanged
+	 */
+	public DownloadTask setResumable(boolean resumable) {
+		this.resumable = resumable;
+		return this;
+	}
+
 	public List<DownloadListener> getListeners() {
 		return listeners;
 	}
@@ -85,24 +194,153 @@ public class DownloadTask {
 		return this;
 	}
 
+	public State getState() {
+		return state.get();
+	}
+
 	public boolean isPaused() {
-		return paused;
+		return state.get() == State.PAUSED;
 	}
 
+	/**
+	 * Pauses or resumes the task, the same as DirectDownloader.pause() and
+	 * resume() once the task is submitted. A task that is finished can't be
+	 * paused.
+	 */
 	public DownloadTask setPaused(boolean paused) {
-		this.paused = paused;
+		DirectDownloader d = downloader;
+
+		if (d != null) {
+			if (paused) {
+				d.pause(this);
+			} else {
+				d.resume(this);
+			}
+		} else if (paused) {
+			pause();
+		} else {
+			// not submitted yet
+			state.compareAndSet(State.PAUSED, State.NEW);
+		}
+
 		return this;
 	}
 
+	void pause() {
+		for (State s = state.get(); !s.isFinal() && s != State.PAUSED; s = state.get()) {
+			if (state.compareAndSet(s, State.PAUSED)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes a submitted task out of PAUSED, back to RUNNING if a worker held
+	 * on to it and to QUEUED otherwise
+	 */
+	void unpause() {
+		state.compareAndSet(State.PAUSED, worker != null ? State.RUNNING : State.QUEUED);
+	}
+
 	public boolean isCancelled() {
-		return cancelled;
+		return state.get() == State.CANCELLED;
 	}
 
+	/**
+	 * Cancels the task, unless it is finished. A running download is aborted
+	 * right away, including a read that is waiting for the server. A paused
+	 * download that gave up its worker is finished by its downloader.
+	 */
 	public DownloadTask setCancelled(boolean cancelled) {
-		this.cancelled = cancelled;
+		if (cancelled) {
+			cancel();
+		} else {
+			state.compareAndSet(State.CANCELLED, State.NEW);
+		}
+
 		return this;
 	}
 
+	/**
+	 * Cancels the task, returns false if it was already finished or cancelled
+	 */
+	boolean cancel() {
+		for (State s = state.get(); !s.isFinal(); s = state.get()) {
+			if (state.compareAndSet(s, State.CANCELLED)) {
+				DirectDownloader.DownloadWorker w = worker;
+				DirectDownloader d = downloader;
+
+				if (w != null) {
+					w.abort();
+				} else if (d != null) {
+					d.cancelled(this);
+				}
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Moves the task on to the given state, unless it is paused or finished
+	 */
+	boolean advance(State to) {
+		for (State s = state.get(); s != State.PAUSED && !s.isFinal(); s = state.get()) {
+			if (state.compareAndSet(s, to)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sets the final state of a download, a cancelled task stays cancelled
+	 */
+	void finish(State to) {
+		for (State s = state.get(); s != State.CANCELLED; s = state.get()) {
+			if (state.compareAndSet(s, to)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queues the task, a paused or cancelled one stays that way
+	 */
+	void queue() {
+		for (State s = state.get(); s != State.PAUSED && s != State.CANCELLED; s = state.get()) {
+			if (state.compareAndSet(s, State.QUEUED)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes a queued or paused task back to NEW, so it can be submitted again
+	 */
+	void dequeue() {
+		for (State s = state.get(); s == State.QUEUED || s == State.PAUSED; s = state.get()) {
+			if (state.compareAndSet(s, State.NEW)) {
+				return;
+			}
+		}
+	}
+
+	void setWorker(DirectDownloader.DownloadWorker worker) {
+		this.worker = worker;
+	}
+
+	DirectDownloader getDownloader() {
+		return downloader;
+	}
+
+	void setDownloader(DirectDownloader downloader) {
+		this.downloader = downloader;
+	}
+
 	public int getTimeout() {
 		return timeout;
 	}
@@ -112,6 +350,104 @@ public class DownloadTask {
 		return this;
 	}
 
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Sets the number of concurrent connections the file is fetched over,
+	 * segmenting only kicks in if the server supports range requests
+	 */
+	public DownloadTask setSegments(int segments) {
+		this.segments = segments;
+		return this;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the priority of the task, tasks with a higher priority are started
+	 * first. Use DirectDownloader.reprioritize() for a task that is already
+	 * queued.
+	 */
+	public DownloadTask setPriority(int priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	public long getMaxBytesPerSecond() {
+		return rateLimiter.getRate();
+	}
+
+	/**
+	 * Limits the download rate of this task, across all its segments. Zero,
+	 * the default, means no limit. This can be changed while the task is
+	 * running.
+	 */
+	public DownloadTask setMaxBytesPerSecond(long rate) {
+		rateLimiter.setRate(rate);
+		return this;
+	}
+
+	RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Sets how this task is retried if it fails, overriding the policy of the
+	 * downloader
+	 */
+	public DownloadTask setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Computes the checksum of the file while it is downloaded, with a
+	 * MessageDigest algorithm such as SHA-256 or MD5, or CRC32, CRC32C or
+	 * ADLER32. If an expected checksum in hex is given the download fails with
+	 * a {@link ChecksumException} when they don't match, otherwise the
+	 * checksum is only reported by the {@link DownloadResult}.
+	 */
+	public DownloadTask setChecksum(String algorithm, String checksum) {
+		this.checksumAlgorithm = algorithm;
+		this.checksum = checksum;
+		return this;
+	}
+
+	/**
+	 * Returns the handle of the latest submission of the task, null if it
+	 * was never submitted
+	 */
+	public DownloadHandle getHandle() {
+		return handle;
+	}
+
+	void setHandle(DownloadHandle handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * Returns the timings of the latest run of this task
+	 */
+	public TaskMetrics getMetrics() {
+		return metrics;
+	}
+
 	public Authentication getAuthentication() {
 		return authentication;
 	}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file download target. All writes go through {@link
+ * FileChannel#write(ByteBuffer, long)}, so several segments can fill disjoint
+ * regions of the same file concurrently without locking each other out.
+ */
+class FileSink {
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	public FileSink(File file) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+
+	private static final int ZERO_BLOCK = 64 * 1024;
+
+	/**
+	 * Sets the file length, e.g. to truncate what was left over from an
+	 * earlier file. Growing a file this way leaves it sparse on most
+	 * filesystems, no disk space is taken for it.
+	 */
+	public void setLength(long length) throws IOException {
+		raf.setLength(length);
+	}
+
+	/**
+	 * Writes zeros from the start position up to the end position. Unlike
+	 * growing the file with setLength() this takes the disk space, so a full
+	 * disk is noticed before the download writes into the file.
+	 */
+	public void fill(long start, long end) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.max(0, Math.min(end - start, ZERO_BLOCK)));
+
+		for (long position = start; position < end;) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), end - position));
+
+			int count = zeros.remaining();
+			write(zeros, position);
+			position += count;
+		}
+	}
+
+	public void write(ByteBuffer buff, long position) throws IOException {
+		while (buff.hasRemaining()) {
+			position += channel.write(buff, position);
+		}
+	}
+
+	/**
+	 * Reads from the file at the given position, returns -1 at the end of the
+	 * file
+	 */
+	public int read(ByteBuffer buff, long position) throws IOException {
+		return channel.read(buff, position);
+	}
+
+	/**
+	 * Returns a stream that writes into the file starting at the given
+	 * position, closing the stream leaves the file open
+	 */
+	public OutputStream getOutputStream(final long position) {
+		return new OutputStream() {
+			private long pos = position;
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				FileSink.this.write(ByteBuffer.wrap(b, off, len), pos);
+				pos += len;
+			}
+		};
+	}
+
+	/**
+	 * Makes sure everything written so far has reached the disk
+	 */
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		raf.close();
+	}
+}
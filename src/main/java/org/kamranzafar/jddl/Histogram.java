@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+/**
+ * Distribution of non-negative values in a fixed set of buckets, four to every
+ * power of two, so percentiles are off by at most a quarter of the value and
+ * recording a value never allocates.
+ */
+public class Histogram {
+	private static final int SUB_BUCKETS = 4;
+
+	private final long[] buckets = new long[index(Long.MAX_VALUE) + 1];
+	private long count = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	public synchronized void update(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		buckets[index(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getMin() {
+		return count > 0 ? min : 0;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	/**
+	 * Returns the value below which the given fraction, between 0 and 1, of
+	 * the recorded values lie, rounded up to the end of its bucket
+	 */
+	public synchronized long getPercentile(double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+
+			if (seen >= rank) {
+				return Math.min(max, Math.max(min, upperBound(i)));
+			}
+		}
+
+		return max;
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int log = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (log - 2)) & (SUB_BUCKETS - 1);
+
+		return (log - 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int log = index / SUB_BUCKETS + 1;
+		long sub = index % SUB_BUCKETS;
+
+		return ((SUB_BUCKETS + sub + 1) << (log - 2)) - 1;
+	}
+}
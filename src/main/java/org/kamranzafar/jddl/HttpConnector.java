@@ -40,6 +40,7 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -58,6 +59,12 @@ public class HttpConnector {
 	private final Map<String, String> headers = new HashMap<String, String>();
 	private String requestMethod = "GET";
 
+	private KeyManager[] keyManagers = new KeyManager[0];
+	private TrustManager[] trustManagers = new TrustManager[] { new DefaultTrustManager() };
+	private HostnameVerifier hostnameVerifier = new DefaultHostnameVerifier();
+	private SSLSocketFactory sslSocketFactory;
+	private Transport transport;
+
 	public HttpConnector() {
 		HttpURLConnection.setFollowRedirects(true);
 	}
@@ -70,13 +77,7 @@ public class HttpConnector {
 	 * @throws KeyManagementException
 	 */
 	protected URLConnection getConnection(URL url) throws IOException, KeyManagementException, NoSuchAlgorithmException {
-		if ("http".equalsIgnoreCase(url.getProtocol()) || "ftp".equalsIgnoreCase(url.getProtocol())) {
-			return getConnection(url, null);
-		} else if ("https".equalsIgnoreCase(url.getProtocol())) {
-			return getSecureConnection(url);
-		}
-
-		return null;
+		return getConnection(url, null);
 	}
 
 	/**
@@ -89,6 +90,13 @@ public class HttpConnector {
 	 */
 	protected URLConnection getConnection(URL url, Proxy proxy) throws IOException, KeyManagementException,
 			NoSuchAlgorithmException {
+		if (transport != null) {
+			HttpURLConnection conn = transport.openConnection(url, proxy);
+			conn.setRequestMethod(requestMethod);
+			setHeaders(conn);
+			return conn;
+		}
+
 		if ("http".equalsIgnoreCase(url.getProtocol()) || "ftp".equalsIgnoreCase(url.getProtocol())) {
 			HttpURLConnection conn = (HttpURLConnection) url.openConnection(proxy == null ? Proxy.NO_PROXY : proxy);
 			conn.setRequestMethod(requestMethod);
@@ -124,24 +132,70 @@ public class HttpConnector {
 	protected HttpsURLConnection getSecureConnection(URL url, Proxy proxy) throws IOException,
 			NoSuchAlgorithmException, KeyManagementException {
 
-		SSLContext context = SSLContext.getInstance("TLS");
-		context.init(new KeyManager[0], new TrustManager[] { new DefaultTrustManager() }, new SecureRandom());
-
 		HttpsURLConnection conn = (HttpsURLConnection) url.openConnection(proxy == null ? Proxy.NO_PROXY : proxy);
 		conn.setRequestMethod(requestMethod);
 		setHeaders(conn);
 
-		conn.setSSLSocketFactory(context.getSocketFactory());
-		conn.setHostnameVerifier(new HostnameVerifier() {
-			public boolean verify(String hostname, SSLSession session) {
-				return true;
-			}
-		});
+		conn.setSSLSocketFactory(getSSLSocketFactory());
+		conn.setHostnameVerifier(hostnameVerifier);
 
 		conn.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
 		return conn;
 	}
 
+	/**
+	 * Returns the socket factory shared by all secure connections of this
+	 * connector, creating it on first use. Sharing a single SSL context keeps
+	 * its session cache, so repeated connections to a host can resume the TLS
+	 * session instead of doing a full handshake.
+	 * 
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 */
+	public synchronized SSLSocketFactory getSSLSocketFactory() throws NoSuchAlgorithmException,
+			KeyManagementException {
+		if (sslSocketFactory == null) {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keyManagers, trustManagers, new SecureRandom());
+
+			sslSocketFactory = context.getSocketFactory();
+		}
+
+		return sslSocketFactory;
+	}
+
+	/**
+	 * Uses the given socket factory for all secure connections, e.g. to share
+	 * one factory between several downloaders or to use
+	 * SSLSocketFactory.getDefault() and the JVM's trust store
+	 * 
+	 * @param sslSocketFactory
+	 */
+	public synchronized void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+		this.sslSocketFactory = sslSocketFactory;
+	}
+
+	/**
+	 * Returns the Content-Length of the response as a long, so sizes past 2
+	 * GB don't overflow, or -1 if it is not known
+	 * 
+	 * @param conn
+	 * @return
+	 */
+	protected long getContentLengthLong(URLConnection conn) {
+		String length = conn.getHeaderField("Content-Length");
+
+		if (length != null) {
+			try {
+				return Long.parseLong(length.trim());
+			} catch (NumberFormatException e) {
+			}
+		}
+
+		return -1;
+	}
+
 	/**
 	 * @param conn
 	 * @param data
@@ -191,6 +245,13 @@ public class HttpConnector {
 		}
 	}
 
+	protected final static class DefaultHostnameVerifier implements HostnameVerifier {
+
+		public boolean verify(String hostname, SSLSession session) {
+			return true;
+		}
+	}
+
 	private void setHeaders(URLConnection uc) {
 		Iterator<String> itr = headers.keySet().iterator();
 		while (itr.hasNext()) {
@@ -215,6 +276,62 @@ public class HttpConnector {
 		return headers;
 	}
 
+	public KeyManager[] getKeyManagers() {
+		return keyManagers;
+	}
+
+	/**
+	 * Sets the key managers used for client authentication, the shared
+	 * socket factory is rebuilt on the next connection
+	 * 
+	 * @param keyManagers
+	 */
+	public synchronized void setKeyManagers(KeyManager[] keyManagers) {
+		this.keyManagers = keyManagers;
+		sslSocketFactory = null;
+	}
+
+	public TrustManager[] getTrustManagers() {
+		return trustManagers;
+	}
+
+	/**
+	 * Sets the trust managers used to check server certificates, by default
+	 * all certificates are trusted. Passing null uses the JVM's default trust
+	 * store. The shared socket factory is rebuilt on the next connection.
+	 * 
+	 * @param trustManagers
+	 */
+	public synchronized void setTrustManagers(TrustManager[] trustManagers) {
+		this.trustManagers = trustManagers;
+		sslSocketFactory = null;
+	}
+
+	public HostnameVerifier getHostnameVerifier() {
+		return hostnameVerifier;
+	}
+
+	public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+		this.hostnameVerifier = hostnameVerifier;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Opens all connections through the given transport instead of
+	 * HttpURLConnection, e.g. an HTTP/2 client that multiplexes many
+	 * downloads over one connection per host. The SSL settings of this
+	 * connector don't apply to such connections, they are up to the
+	 * transport. Null, the default, uses HttpURLConnection.
+	 * 
+	 * @param transport
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
 	public String getRequestMethod() {
 		return requestMethod;
 	}
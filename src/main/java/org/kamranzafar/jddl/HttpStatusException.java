@@ -0,0 +1,49 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Thrown when the server answers a download request with an error status
+ */
+public class HttpStatusException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+	private final String retryAfter;
+
+	public HttpStatusException(URL url, int status, String retryAfter) {
+		super("Server returned HTTP " + status + " for " + url);
+		this.status = status;
+		this.retryAfter = retryAfter;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the Retry-After header of the response, either seconds or a
+	 * date, or null if there was none
+	 */
+	public String getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Passes the events of a single download on to its listeners. Sizes are passed
+ * as longs to {@link LongDownloadListener}s, listeners that only take ints are
+ * told an unknown size for files past 2 GB and totals are capped.
+ * 
+ * Progress updates are coalesced until the update interval has passed or enough
+ * bytes have been read, the bytes of the skipped updates are added to the next
+ * one. If an executor is given the events are delivered on it, one after the
+ * other and in the order they happened, so slow listeners don't hold up the
+ * download. Otherwise the listeners are called on the downloading thread.
+ */
+class ListenerDispatcher {
+	private static Logger logger = Logger.getLogger(ListenerDispatcher.class.getName());
+
+	private final List<DownloadListener> listeners;
+	private final Executor executor;
+	private final long interval;
+	private final long threshold;
+
+	private final LinkedList<Runnable> events = new LinkedList<Runnable>();
+	private boolean draining = false;
+
+	private long bytes = 0;
+	private long total = 0;
+	private long lastUpdate = 0;
+	private boolean updateQueued = false;
+
+	private final Runnable update = new Runnable() {
+		public void run() {
+			long b;
+			long t;
+
+			synchronized (ListenerDispatcher.this) {
+				b = bytes;
+				t = total;
+				bytes = 0;
+				updateQueued = false;
+				lastUpdate = System.currentTimeMillis();
+			}
+
+			if (b > 0) {
+				for (DownloadListener listener : listeners) {
+					if (listener instanceof LongDownloadListener) {
+						((LongDownloadListener) listener).onUpdate(b, t);
+					} else {
+						listener.onUpdate(toInt(b), toInt(t));
+					}
+				}
+			}
+		}
+	};
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			Runnable event;
+
+			while ((event = nextEvent()) != null) {
+				try {
+					event.run();
+				} catch (RuntimeException e) {
+					logger.warning("Download listener failed: " + e);
+				}
+			}
+		}
+	};
+
+	public ListenerDispatcher(List<DownloadListener> listeners, Executor executor, long interval, long threshold) {
+		this.listeners = listeners;
+		this.executor = executor;
+		this.interval = interval;
+		this.threshold = threshold;
+	}
+
+	public void onStart(final String fname, final long fsize) {
+		post(new Runnable() {
+			public void run() {
+				for (DownloadListener listener : listeners) {
+					if (listener instanceof LongDownloadListener) {
+						((LongDownloadListener) listener).onStart(fname, fsize);
+					} else {
+						listener.onStart(fname, fsize > Integer.MAX_VALUE ? -1 : (int) fsize);
+					}
+				}
+			}
+		});
+	}
+
+	public void onUpdate(long bytes, long totalDownloaded) {
+		synchronized (this) {
+			this.bytes += bytes;
+			this.total = totalDownloaded;
+
+			if (updateQueued || !isUpdateDue()) {
+				return;
+			}
+
+			updateQueued = true;
+		}
+
+		post(update);
+	}
+
+	public void onComplete() {
+		flush();
+		post(new Runnable() {
+			public void run() {
+				for (DownloadListener listener : listeners) {
+					listener.onComplete();
+				}
+			}
+		});
+	}
+
+	public void onCancel() {
+		flush();
+		post(new Runnable() {
+			public void run() {
+				for (DownloadListener listener : listeners) {
+					listener.onCancel();
+				}
+			}
+		});
+	}
+
+	private static int toInt(long value) {
+		return (int) Math.min(value, Integer.MAX_VALUE);
+	}
+
+	private boolean isUpdateDue() {
+		if (interval <= 0 && threshold <= 0) {
+			return true;
+		}
+
+		return (interval > 0 && System.currentTimeMillis() - lastUpdate >= interval)
+				|| (threshold > 0 && bytes >= threshold);
+	}
+
+	/**
+	 * Makes sure the bytes of coalesced updates are delivered before the
+	 * download ends
+	 */
+	private void flush() {
+		synchronized (this) {
+			if (bytes == 0 || updateQueued) {
+				return;
+			}
+
+			updateQueued = true;
+		}
+
+		post(update);
+	}
+
+	private void post(Runnable event) {
+		if (executor == null) {
+			event.run();
+			return;
+		}
+
+		synchronized (events) {
+			events.add(event);
+
+			if (draining) {
+				return;
+			}
+
+			draining = true;
+		}
+
+		executor.execute(drain);
+	}
+
+	private Runnable nextEvent() {
+		synchronized (events) {
+			if (events.isEmpty()) {
+				draining = false;
+				return null;
+			}
+
+			return events.removeFirst();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+package org.kamranzafar.jddl;
+
+public class LongDownloadAdaptor implements LongDownloadListener {
+
+	public void onStart(String fname, int fsize) {
+		onStart(fname, (long) fsize);
+	}
+
+	public void onUpdate(int bytes, int totalDownloaded) {
+		onUpdate((long) bytes, (long) totalDownloaded);
+	}
+
+	public void onStart(String fname, long fsize) {
+	}
+
+	public void onUpdate(long bytes, long totalDownloaded) {
+	}
+
+	public void onComplete() {
+	}
+
+	public void onCancel() {
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads download tasks from a list of URLs one line at a time, so a manifest of
+ * any size can be fed to {@link DirectDownloader#submitAll(Iterator)} without
+ * building all its tasks up front. Each line holds a URL, optionally followed
+ * by the name of the file to save it as, otherwise the last part of the URL
+ * path is used. Blank lines and lines starting with # are skipped. The reader
+ * is closed at the end of the manifest.
+ */
+public class Manifest implements Iterator<DownloadTask>, Closeable {
+	private final BufferedReader reader;
+	private final File dir;
+	private DownloadTask next;
+	private int line = 0;
+	private boolean closed = false;
+
+	public Manifest(File manifest, File dir) throws IOException {
+		this(new FileReader(manifest), dir);
+	}
+
+	/**
+	 * Reads the manifest from the reader, the files are saved in the given
+	 * directory
+	 */
+	public Manifest(Reader reader, File dir) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		this.dir = dir;
+	}
+
+	/**
+	 * Creates the task of a line, override it to set up tasks differently,
+	 * e.g. with a listener or a checksum
+	 */
+	protected DownloadTask createTask(URL url, File file) {
+		return new DownloadTask(url, file);
+	}
+
+	/**
+	 * Returns the number of the last line read
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	public boolean hasNext() {
+		if (next == null && !closed) {
+			next = read();
+		}
+
+		return next != null;
+	}
+
+	public DownloadTask next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		DownloadTask dt = next;
+		next = null;
+
+		return dt;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		reader.close();
+	}
+
+	private DownloadTask read() {
+		try {
+			String s;
+
+			while ((s = reader.readLine()) != null) {
+				line++;
+				s = s.trim();
+
+				if (s.length() == 0 || s.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = s.split("\\s+", 2);
+				URL url = new URL(fields[0]);
+				String name = fields.length > 1 ? fields[1] : getName(url);
+
+				if (name.length() == 0) {
+					throw new IllegalArgumentException("No file name for " + url + " on line " + line + " of manifest");
+				}
+
+				return createTask(url, new File(dir, name));
+			}
+
+			close();
+			return null;
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid URL on line " + line + " of manifest: " + e.getMessage());
+		} catch (IOException e) {
+			throw new IllegalStateException("Can't read manifest after line " + line, e);
+		}
+	}
+
+	private static String getName(URL url) {
+		String path = url.getPath();
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Read-only MBean with an attribute for every entry of the metrics snapshot.
+ * Hosts show up as attributes once something was downloaded from them.
+ */
+class MetricsMBean implements DynamicMBean {
+	private final DownloadMetrics metrics;
+
+	MetricsMBean(DownloadMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public Object getAttribute(String name) throws AttributeNotFoundException {
+		Number value = metrics.getSnapshot().get(name);
+
+		if (value == null) {
+			throw new AttributeNotFoundException(name);
+		}
+
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] names) {
+		Map<String, Number> snapshot = metrics.getSnapshot();
+		AttributeList list = new AttributeList();
+
+		for (String name : names) {
+			if (snapshot.containsKey(name)) {
+				list.add(new Attribute(name, snapshot.get(name)));
+			}
+		}
+
+		return list;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+		for (Map.Entry<String, Number> e : metrics.getSnapshot().entrySet()) {
+			attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true,
+					false, false));
+		}
+
+		return new MBeanInfo(getClass().getName(), "Download metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), new MBeanConstructorInfo[0],
+				new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+	}
+
+	public Object invoke(String action, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(action);
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Opens the stream a download is written to once its transfer starts, instead
+ * of when the task is created. Queued tasks therefore hold no open files, and
+ * files are only created when there are bytes for them. The downloader closes
+ * the stream when the download ends.
+ */
+public interface OutputStreamFactory {
+	/**
+	 * Opens the stream of the task, called once per run of the task after
+	 * the server has responded
+	 */
+	OutputStream open(DownloadTask task) throws IOException;
+}
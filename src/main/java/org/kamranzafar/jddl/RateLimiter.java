@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+/**
+ * Token bucket that limits the bytes per second read by the threads sharing it.
+ * Reads take their bytes out of the bucket, running it into debt if need be,
+ * and the reading thread then sleeps until the debt is paid off, so nothing
+ * spins while waiting. The bucket holds at most a tenth of a second's worth of
+ * bytes, which is also the largest read allowed, to keep the traffic smooth.
+ */
+class RateLimiter {
+	private static final long NANOS = 1000000000L;
+	private static final int BURSTS_PER_SECOND = 10;
+
+	// read without the lock, so unlimited readers never contend for it
+	private volatile long rate;
+	private double tokens = 0;
+	private long last = System.nanoTime();
+
+	public RateLimiter(long rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Sets the bytes per second, zero or less means no limit
+	 */
+	public synchronized void setRate(long rate) {
+		this.rate = rate;
+		this.tokens = Math.min(tokens, getBurst());
+	}
+
+	public long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the most bytes that should be read at once
+	 */
+	public int getBurst() {
+		return getBurst(rate);
+	}
+
+	private static int getBurst(long rate) {
+		return rate > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, rate / BURSTS_PER_SECOND))
+				: Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Takes the bytes just read out of the bucket, sleeping until the bucket
+	 * is no longer in debt
+	 */
+	public void acquire(int bytes) throws InterruptedException {
+		long wait;
+
+		if (rate <= 0) {
+			return;
+		}
+
+		synchronized (this) {
+			long rate = this.rate;
+
+			// lifted in the meantime
+			if (rate <= 0) {
+				return;
+			}
+
+			long now = System.nanoTime();
+			tokens = Math.min(getBurst(rate), tokens + (double) (now - last) * rate / NANOS);
+			last = now;
+
+			tokens -= bytes;
+			wait = tokens < 0 ? (long) (-tokens * NANOS / rate) : 0;
+		}
+
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * Decides whether a failed download is tried again and how long to wait before.
+ * Network errors and the statuses that signal a busy or temporarily broken
+ * server are retried, with a delay that doubles every attempt and is shortened
+ * by a random amount, so many clients failing at once don't all come back at
+ * the same time. A Retry-After header from the server is honoured as long as it
+ * isn't beyond the maximum delay.
+ */
+public class RetryPolicy {
+	private int maxAttempts;
+	private long initialDelay = 1000;
+	private long maxDelay = 60000;
+	private double multiplier = 2;
+	private double jitter = 0.5;
+	private final Set<Integer> retryStatuses = new HashSet<Integer>();
+
+	private final Random random = new Random();
+
+	/**
+	 * @param maxAttempts
+	 *            the times a download is tried in all, 1 means it is never
+	 *            retried
+	 */
+	public RetryPolicy(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+
+		retryStatuses.add(408);
+		retryStatuses.add(429);
+		retryStatuses.add(500);
+		retryStatuses.add(502);
+		retryStatuses.add(503);
+		retryStatuses.add(504);
+	}
+
+	/**
+	 * Returns the milliseconds to wait before the given attempt, counting
+	 * from 2 for the first retry, or -1 if the download shouldn't be retried
+	 */
+	public long getDelay(int attempt, Exception e) {
+		if (attempt > maxAttempts || !isRetryable(e)) {
+			return -1;
+		}
+
+		if (e instanceof HttpStatusException && ((HttpStatusException) e).getRetryAfter() != null) {
+			long delay = parseRetryAfter(((HttpStatusException) e).getRetryAfter());
+
+			if (delay >= 0) {
+				return delay <= maxDelay ? delay : -1;
+			}
+		}
+
+		double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 2));
+
+		synchronized (random) {
+			delay -= delay * jitter * random.nextDouble();
+		}
+
+		return (long) delay;
+	}
+
+	/**
+	 * Returns true for network errors and retryable statuses, failures that
+	 * will happen again the same way, like an unknown host or a missing file,
+	 * are not retried
+	 */
+	public boolean isRetryable(Exception e) {
+		if (e instanceof HttpStatusException) {
+			return retryStatuses.contains(((HttpStatusException) e).getStatus());
+		}
+
+		return e instanceof IOException && !(e instanceof UnknownHostException)
+				&& !(e instanceof MalformedURLException) && !(e instanceof ProtocolException)
+				&& !(e instanceof SSLHandshakeException);
+	}
+
+	/**
+	 * Returns the milliseconds to wait from a Retry-After value, given in
+	 * seconds or as an HTTP date, or -1 if it can't be parsed
+	 */
+	private static long parseRetryAfter(String value) {
+		value = value.trim();
+
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		try {
+			return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public RetryPolicy setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	/**
+	 * Sets the milliseconds to wait before the first retry
+	 */
+	public RetryPolicy setInitialDelay(long initialDelay) {
+		this.initialDelay = initialDelay;
+		return this;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * Sets the longest wait between two attempts, a server asking for a
+	 * longer wait with Retry-After is not retried
+	 */
+	public RetryPolicy setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+		return this;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public RetryPolicy setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Sets the largest fraction, between 0 and 1, a delay is randomly
+	 * shortened by
+	 */
+	public RetryPolicy setJitter(double jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+
+	public Set<Integer> getRetryStatuses() {
+		return retryStatuses;
+	}
+
+	/**
+	 * Adds an HTTP status that is retried besides 408, 429, 500, 502, 503
+	 * and 504
+	 */
+	public RetryPolicy addRetryStatus(int status) {
+		retryStatuses.add(status);
+		return this;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a download and how far into it the bytes have been written.
+ * An end of -1 means the length of the file is not known.
+ */
+class Segment {
+	private final long start;
+	private final long end;
+	private volatile long position;
+
+	public Segment(long start, long end) {
+		this(start, end, start);
+	}
+
+	public Segment(long start, long end, long position) {
+		this.start = start;
+		this.end = end;
+		this.position = position;
+	}
+
+	/**
+	 * Splits a file of the given length into count consecutive segments
+	 */
+	public static List<Segment> split(long length, int count) {
+		List<Segment> segments = new ArrayList<Segment>();
+
+		if (length <= 0) {
+			segments.add(new Segment(0, -1));
+			return segments;
+		}
+
+		long size = length / count;
+		for (int i = 0; i < count; i++) {
+			segments.add(new Segment(i * size, i == count - 1 ? length - 1 : (i + 1) * size - 1));
+		}
+
+		return segments;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public void advance(int bytes) {
+		position += bytes;
+	}
+
+	public long getWritten() {
+		return position - start;
+	}
+
+	public boolean isComplete() {
+		return end >= 0 && position > end;
+	}
+
+	/**
+	 * Returns how many bytes can be read into a buffer of the given size
+	 * without running past the end of the segment
+	 */
+	public int getReadLength(int max) {
+		return end < 0 ? max : (int) Math.min(max, end - position + 1);
+	}
+
+	/**
+	 * Returns the Range header value for the bytes still missing
+	 */
+	public String getRange() {
+		return "bytes=" + position + "-" + (end < 0 ? "" : String.valueOf(end));
+	}
+}
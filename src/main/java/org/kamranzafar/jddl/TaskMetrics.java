@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+/**
+ * Timings and counters of a single download task. Times are in milliseconds and
+ * are zero until the download gets that far.
+ */
+public class TaskMetrics {
+	private volatile long queued;
+	private volatile long started;
+	private volatile long connected;
+	private volatile long firstByte;
+	private volatile long finished;
+
+	private volatile long queueWait;
+	private volatile long connectTime;
+	private volatile long timeToFirstByte;
+	private volatile long bytes;
+	private volatile int retries;
+
+	void queued() {
+		queued = System.currentTimeMillis();
+		started = connected = firstByte = finished = 0;
+		queueWait = connectTime = timeToFirstByte = bytes = 0;
+	}
+
+	void started() {
+		started = System.currentTimeMillis();
+		queueWait = queued > 0 ? started - queued : 0;
+	}
+
+	void connected(long nanos) {
+		connected = System.currentTimeMillis();
+		connectTime = nanos / 1000000;
+	}
+
+	void firstByte(long nanos) {
+		firstByte = System.currentTimeMillis();
+		timeToFirstByte = nanos / 1000000;
+	}
+
+	void finished(long bytes) {
+		this.bytes = bytes;
+		finished = System.currentTimeMillis();
+	}
+
+	void retried() {
+		retries++;
+	}
+
+	/**
+	 * Returns how long the task waited in the queue before a worker picked it
+	 * up
+	 */
+	public long getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Returns how long opening the connection took, including the TLS
+	 * handshake for https
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the time from opening the connection until the response headers
+	 * arrived
+	 */
+	public long getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	/**
+	 * Returns the time from the start of the download until it completed,
+	 * failed or was cancelled
+	 */
+	public long getDuration() {
+		return started > 0 && finished > 0 ? finished - started : 0;
+	}
+
+	/**
+	 * Returns the bytes read in this run, excluding those resumed from an
+	 * earlier run
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the average bytes per second from the first byte to the end of
+	 * the download
+	 */
+	public long getBytesPerSecond() {
+		long from = firstByte > 0 ? firstByte : connected;
+		long time = from > 0 && finished > 0 ? finished - from : 0;
+
+		return time > 0 ? bytes * 1000 / time : 0;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+}
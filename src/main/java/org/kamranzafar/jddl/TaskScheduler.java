@@ -0,0 +1,315 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Queues the download tasks per host and hands them out round-robin across the
+ * hosts, skipping hosts that already have as many connections open as they are
+ * allowed. A batch of files from one slow server therefore doesn't hold up the
+ * downloads from others.
+ * 
+ * Tasks with a higher priority go first, both within a host and across hosts. A
+ * waiting task gains one priority level for every aging interval it spends in
+ * the queue, so low priority tasks are not starved.
+ */
+class TaskScheduler {
+	private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+	private final LinkedList<HostQueue> rotation = new LinkedList<HostQueue>();
+	private final Map<String, Integer> limits = new HashMap<String, Integer>();
+
+	private int maxPerHost = 0;
+	private int size = 0;
+	private long aging = 60000;
+	private long sequence = 0;
+
+	private final Comparator<Entry> order = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			// the relative order of two waiting tasks doesn't change as they
+			// age, so it can be kept in a heap
+			long r1 = e1.priority * aging - e1.queued;
+			long r2 = e2.priority * aging - e2.queued;
+
+			if (r1 != r2) {
+				return r1 > r2 ? -1 : 1;
+			}
+
+			return e1.sequence < e2.sequence ? -1 : 1;
+		}
+	};
+
+	private static class Entry {
+		private final DownloadTask task;
+		private final long queued;
+		private final long sequence;
+		private int priority;
+
+		Entry(DownloadTask task, long queued, long sequence) {
+			this.task = task;
+			this.queued = queued;
+			this.sequence = sequence;
+			this.priority = task.getPriority();
+		}
+	}
+
+	private class HostQueue {
+		private final String host;
+		private PriorityQueue<Entry> tasks = new PriorityQueue<Entry>(11, order);
+		private int active = 0;
+
+		HostQueue(String host) {
+			this.host = host;
+		}
+	}
+
+	public static String getHost(URL url) {
+		return url.getHost().toLowerCase();
+	}
+
+	public synchronized void add(DownloadTask dt) {
+		getQueue(getHost(dt.getUrl())).tasks.add(new Entry(dt, System.currentTimeMillis(), sequence++));
+		size++;
+	}
+
+	/**
+	 * Returns the most urgent task among the hosts with a free connection,
+	 * hosts whose tasks are equally urgent take turns. Returns null if no
+	 * host has a free connection. The task's connection counts against its
+	 * host until it is released.
+	 */
+	public synchronized DownloadTask next() {
+		long now = System.currentTimeMillis();
+		HostQueue next = null;
+		long level = 0;
+
+		for (HostQueue hq : rotation) {
+			if (!hq.tasks.isEmpty() && hq.active < getLimit(hq.host)) {
+				long l = getLevel(hq.tasks.peek(), now);
+
+				if (next == null || l > level) {
+					next = hq;
+					level = l;
+				}
+			}
+		}
+
+		if (next == null) {
+			return null;
+		}
+
+		rotation.remove(next);
+		rotation.addLast(next);
+
+		next.active++;
+		size--;
+		return next.tasks.poll().task;
+	}
+
+	/**
+	 * Changes the priority of a waiting task, returns false if the task is
+	 * not waiting
+	 */
+	public synchronized boolean reprioritize(DownloadTask dt, int priority) {
+		HostQueue hq = hosts.get(getHost(dt.getUrl()));
+
+		if (hq != null) {
+			for (Iterator<Entry> itr = hq.tasks.iterator(); itr.hasNext();) {
+				Entry e = itr.next();
+
+				if (e.task == dt) {
+					itr.remove();
+					dt.setPriority(priority);
+					e.priority = priority;
+					hq.tasks.add(e);
+
+					return true;
+				}
+			}
+		}
+
+		dt.setPriority(priority);
+		return false;
+	}
+
+	/**
+	 * Takes a waiting task out of the queue, returns false if the task is not
+	 * waiting
+	 */
+	public synchronized boolean remove(DownloadTask dt) {
+		HostQueue hq = hosts.get(getHost(dt.getUrl()));
+
+		if (hq != null) {
+			for (Iterator<Entry> itr = hq.tasks.iterator(); itr.hasNext();) {
+				if (itr.next().task == dt) {
+					itr.remove();
+					size--;
+
+					if (hq.active == 0 && hq.tasks.isEmpty()) {
+						hosts.remove(hq.host);
+						rotation.remove(hq);
+					}
+
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Takes all waiting tasks out of the queue and returns them, most urgent
+	 * first within each host
+	 */
+	public synchronized List<DownloadTask> drain() {
+		List<DownloadTask> tasks = new ArrayList<DownloadTask>(size);
+
+		for (Iterator<HostQueue> itr = rotation.iterator(); itr.hasNext();) {
+			HostQueue hq = itr.next();
+
+			while (!hq.tasks.isEmpty()) {
+				tasks.add(hq.tasks.poll().task);
+			}
+
+			if (hq.active == 0) {
+				hosts.remove(hq.host);
+				itr.remove();
+			}
+		}
+
+		size = 0;
+		return tasks;
+	}
+
+	/**
+	 * Returns the priority of a waiting task including what it has gained
+	 * by waiting
+	 */
+	private long getLevel(Entry e, long now) {
+		return e.priority + (now - e.queued) / aging;
+	}
+
+	/**
+	 * Takes up to count more connections to the host of the url, e.g. for
+	 * the segments of a download, and returns how many were granted
+	 */
+	public synchronized int reserve(URL url, int count) {
+		HostQueue hq = getQueue(getHost(url));
+		int granted = Math.max(0, Math.min(count, getLimit(hq.host) - hq.active));
+
+		hq.active += granted;
+		return granted;
+	}
+
+	/**
+	 * Returns how many more connections the host of the url may open
+	 */
+	public synchronized int getAvailable(URL url) {
+		String host = getHost(url);
+		HostQueue hq = hosts.get(host);
+
+		return Math.max(0, getLimit(host) - (hq == null ? 0 : hq.active));
+	}
+
+	public synchronized void release(URL url, int count) {
+		HostQueue hq = hosts.get(getHost(url));
+
+		if (hq != null) {
+			hq.active = Math.max(0, hq.active - count);
+
+			if (hq.active == 0 && hq.tasks.isEmpty()) {
+				hosts.remove(hq.host);
+				rotation.remove(hq);
+			}
+		}
+	}
+
+	public synchronized List<DownloadTask> getTasks() {
+		List<DownloadTask> tasks = new ArrayList<DownloadTask>(size);
+
+		for (HostQueue hq : rotation) {
+			for (Entry e : hq.tasks) {
+				tasks.add(e.task);
+			}
+		}
+
+		return tasks;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long getAging() {
+		return aging;
+	}
+
+	public synchronized void setAging(long aging) {
+		this.aging = Math.max(1, aging);
+
+		// the heaps are ordered by the old interval
+		for (HostQueue hq : rotation) {
+			PriorityQueue<Entry> tasks = new PriorityQueue<Entry>(Math.max(11, hq.tasks.size()), order);
+			tasks.addAll(hq.tasks);
+			hq.tasks = tasks;
+		}
+	}
+
+	public synchronized int getMaxPerHost() {
+		return maxPerHost;
+	}
+
+	public synchronized void setMaxPerHost(int maxPerHost) {
+		this.maxPerHost = maxPerHost;
+	}
+
+	public synchronized int getMaxPerHost(String host) {
+		Integer limit = limits.get(host.toLowerCase());
+		return limit != null ? limit : maxPerHost;
+	}
+
+	public synchronized void setMaxPerHost(String host, int max) {
+		limits.put(host.toLowerCase(), max);
+	}
+
+	private int getLimit(String host) {
+		int limit = getMaxPerHost(host);
+		return limit > 0 ? limit : Integer.MAX_VALUE;
+	}
+
+	private HostQueue getQueue(String host) {
+		HostQueue hq = hosts.get(host);
+
+		if (hq == null) {
+			hq = new HostQueue(host);
+			hosts.put(host, hq);
+			rotation.add(hq);
+		}
+
+		return hq;
+	}
+}
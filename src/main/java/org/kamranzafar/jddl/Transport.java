@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Opens the connections downloads are made over. The downloader only talks to
+ * the HttpURLConnection API, setting request headers, connecting and reading
+ * the response code, headers and body, so a transport can put any HTTP client
+ * behind it.
+ */
+public interface Transport {
+	/**
+	 * Returns a new connection to the url that is not connected yet. The
+	 * proxy is null if none was set on the downloader.
+	 */
+	HttpURLConnection openConnection(URL url, Proxy proxy) throws IOException;
+}
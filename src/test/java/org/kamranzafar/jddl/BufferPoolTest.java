@@ -0,0 +1,149 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BufferPoolTest {
+
+	@Test
+	public void testGrowth() {
+		BufferPool pool = new BufferPool();
+		BufferPool.Buffer buff = pool.borrow(1024, 8192);
+		assertEquals(1024, buff.capacity());
+
+		// a short read starts the count over
+		fill(buff, 7);
+		buff.update(100);
+		fill(buff, 7);
+		assertEquals(1024, buff.capacity());
+
+		buff.update(1024);
+		assertEquals(2048, buff.capacity());
+
+		fill(buff, 8);
+		assertEquals(4096, buff.capacity());
+		fill(buff, 8);
+		assertEquals(8192, buff.capacity());
+
+		// capped at the max size
+		fill(buff, 100);
+		assertEquals(8192, buff.capacity());
+		buff.release();
+
+		// later buffers start at the size reached, within their own limit
+		assertEquals(8192, pool.borrow(1024, 65536).capacity());
+		assertEquals(4096, pool.borrow(1024, 4096).capacity());
+		assertEquals(16384, pool.borrow(16384, 65536).capacity());
+	}
+
+	@Test
+	public void testReuse() {
+		BufferPool pool = new BufferPool();
+		BufferPool.Buffer buff = pool.borrow(1024, 1024);
+		byte[] array = buff.array();
+		buff.release();
+		buff.release();
+
+		BufferPool.Buffer b1 = pool.borrow(1024, 1024);
+		BufferPool.Buffer b2 = pool.borrow(1024, 1024);
+		assertSame(array, b1.array());
+		assertTrue(array != b2.array());
+
+		// the smaller array is given back when a buffer grows
+		BufferPool.Buffer grown = pool.borrow(512, 1024);
+		byte[] small = grown.array();
+		fill(grown, 8);
+		assertEquals(1024, grown.capacity());
+		assertSame(small, pool.borrow(512, 512).array());
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final BufferPool pool = new BufferPool();
+		final Map<byte[], Boolean> inUse = new IdentityHashMap<byte[], Boolean>();
+		final AtomicReference<String> error = new AtomicReference<String>();
+		Thread[] threads = new Thread[8];
+
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						BufferPool.Buffer buff = pool.borrow(256, 4096);
+						take(buff.array());
+
+						for (int r = 0; r < i % 20; r++) {
+							byte[] array = buff.array();
+							buff.update(buff.capacity());
+
+							if (buff.array() != array) {
+								give(array);
+								take(buff.array());
+							}
+						}
+
+						give(buff.array());
+						buff.release();
+					}
+				}
+
+				// no two borrowers may hold the same array
+				private void take(byte[] array) {
+					synchronized (inUse) {
+						if (inUse.put(array, Boolean.TRUE) != null) {
+							error.set("Buffer handed out twice");
+						}
+					}
+				}
+
+				private void give(byte[] array) {
+					synchronized (inUse) {
+						inUse.remove(array);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertNull(error.get());
+		assertEquals(4096, pool.borrow(256, 4096).capacity());
+	}
+
+	private static void fill(BufferPool.Buffer buff, int reads) {
+		for (int i = 0; i < reads; i++) {
+			buff.update(buff.capacity());
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChecksumTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(512 * 1024 + 5);
+		dd = new DirectDownloader();
+		dd.setMinSegmentSize(64 * 1024);
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String sha = digest("SHA-256");
+
+		DownloadResult result = dd.submit(
+				new DownloadTask(server.getUrl("stream.bin"), out).setSegments(3).setChecksum("SHA-256",
+						sha.toUpperCase())).get(30, TimeUnit.SECONDS);
+
+		assertEquals(sha, result.getChecksum());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testSegmentedFile() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		CRC32 crc = new CRC32();
+		crc.update(server.getPayload());
+
+		DownloadResult result = dd.submit(
+				new DownloadTask(server.getUrl("file.bin"), f).setSegments(4).setChecksum("CRC32", null)).get(30,
+				TimeUnit.SECONDS);
+
+		assertEquals(crc.getValue(), Long.parseLong(result.getChecksum(), 16));
+		assertEquals(digest("MD5"), dd.submit(new DownloadTask(server.getUrl("file.bin"), f).setSegments(4)
+				.setChecksum("MD5", null)).get(30, TimeUnit.SECONDS).getChecksum());
+	}
+
+	@Test
+	public void testMismatch() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		try {
+			dd.submit(new DownloadTask(server.getUrl("bad.bin"), f).setChecksum("SHA-256", "0123")).get(30,
+					TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ChecksumException);
+			assertEquals(digest("SHA-256"), ((ChecksumException) e.getCause()).getActual());
+		}
+	}
+
+	@Test
+	public void testResumed() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+		new File(f.getPath() + DownloadJournal.SUFFIX).deleteOnExit();
+
+		server.setFailAfter(100 * 1024);
+		try {
+			dd.submit(new DownloadTask(server.getUrl("resume.bin"), f).setResumable(true)).get(30, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			// expected
+		}
+
+		DownloadResult result = dd.submit(
+				new DownloadTask(server.getUrl("resume.bin"), f).setResumable(true).setChecksum("SHA-1",
+						digest("SHA-1"))).get(30, TimeUnit.SECONDS);
+
+		assertEquals(server.getPayload().length - 100 * 1024, result.getBytes());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(f));
+	}
+
+	private String digest(String algorithm) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance(algorithm).digest(server.getPayload())) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DownloadHandleTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestServer(256 * 1024);
+		dd = new DirectDownloader();
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testResult() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DownloadHandle handle = dd.submit(new DownloadTask(server.getUrl("file.bin"), out));
+
+		DownloadResult result = handle.get(30, TimeUnit.SECONDS);
+		assertTrue(handle.isDone());
+		assertEquals(server.getPayload().length, result.getBytes());
+		assertEquals(server.getPayload().length, result.getLength());
+		assertEquals(server.getUrl("file.bin"), result.getUrl());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Throwable> cause = new AtomicReference<Throwable>();
+
+		DownloadHandle handle = dd.submit(new DownloadTask(server.getUrl("missing.bin"), new ByteArrayOutputStream()));
+		handle.addCallback(new DownloadCallback() {
+			public void onSuccess(DownloadResult result) {
+				done.countDown();
+			}
+
+			public void onFailure(Throwable t) {
+				cause.set(t);
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(404, ((HttpStatusException) cause.get()).getStatus());
+
+		try {
+			handle.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof HttpStatusException);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		DownloadTask dt = new DownloadTask(server.getUrl("file.bin"), new ByteArrayOutputStream())
+				.setMaxBytesPerSecond(64 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		assertTrue(handle.cancel(true));
+		assertTrue(handle.isCancelled());
+		assertTrue(dt.isCancelled());
+
+		try {
+			handle.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+
+		assertFalse(handle.cancel(true));
+	}
+
+	@Test
+	public void testCancelAfterDone() throws Exception {
+		// the task is done but its worker hasn't completed the handle yet
+		DownloadTask dt = new DownloadTask(server.getUrl("file.bin"), new ByteArrayOutputStream());
+		dt.finish(DownloadTask.State.DONE);
+		DownloadHandle handle = new DownloadHandle(dt);
+
+		assertFalse(handle.cancel(true));
+		assertFalse(handle.isDone());
+		assertEquals(DownloadTask.State.DONE, dt.getState());
+	}
+}
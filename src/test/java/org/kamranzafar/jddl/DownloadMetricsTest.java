@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DownloadMetricsTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestServer(100 * 1024);
+		dd = new DirectDownloader();
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dd.getMetrics().unregisterMBean();
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram h = new Histogram();
+
+		for (int i = 1; i <= 1000; i++) {
+			h.update(i);
+		}
+
+		assertEquals(1000, h.getCount());
+		assertEquals(1, h.getMin());
+		assertEquals(1000, h.getMax());
+		assertEquals(500.5, h.getMean(), 0.001);
+
+		long p50 = h.getPercentile(0.5);
+		assertTrue(p50 >= 500 && p50 <= 500 * 1.25);
+		assertEquals(1000, h.getPercentile(1));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		SegmentedTest.CountingListener listener = new SegmentedTest.CountingListener();
+		DownloadTask dt = new DownloadTask(server.getUrl("metrics.bin"), new ByteArrayOutputStream(), listener);
+
+		dd.download(dt);
+		listener.await();
+
+		DownloadMetrics metrics = dd.getMetrics();
+		for (int i = 0; i < 100 && metrics.getCompleted() == 0; i++) {
+			Thread.sleep(50);
+		}
+
+		assertEquals(1, metrics.getStarted());
+		assertEquals(1, metrics.getCompleted());
+		assertEquals(0, metrics.getFailed());
+		assertEquals(server.getPayload().length, metrics.getBytes());
+		assertEquals(1, metrics.getConnectTime().getCount());
+		assertEquals(1, metrics.getTimeToFirstByte().getCount());
+		assertEquals(server.getPayload().length, dt.getMetrics().getBytes());
+		assertEquals(1, metrics.getHostMetrics("127.0.0.1").getCompleted());
+
+		Map<String, Number> snapshot = metrics.getSnapshot();
+		assertEquals(1L, snapshot.get("completed"));
+		assertEquals(1L, snapshot.get("host.127.0.0.1.completed"));
+
+		ObjectName name = new ObjectName("org.kamranzafar.jddl:type=DirectDownloader,name=test");
+		metrics.registerMBean(name.toString());
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "completed"));
+	}
+}
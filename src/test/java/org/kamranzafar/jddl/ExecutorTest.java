@@ -0,0 +1,205 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ExecutorTest {
+	private TestServer server;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestServer(1024 * 1024 + 17);
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+
+		server.stop();
+	}
+
+	@Test
+	public void testSharedExecutor() throws Exception {
+		pool = Executors.newCachedThreadPool();
+		CountingExecutor executor = new CountingExecutor(pool);
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		DirectDownloader dd = new DirectDownloader(executor, 2);
+		dd.setMinSegmentSize(64 * 1024);
+		new Thread(dd).start();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dd.submit(new DownloadTask(server.getUrl("file.bin"), f).setSegments(3)).get(30, TimeUnit.SECONDS);
+		dd.submit(new DownloadTask(server.getUrl("stream.bin"), out)).get(30, TimeUnit.SECONDS);
+
+		// two workers, and the two extra segments of the file
+		assertEquals(4, executor.count.get());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(f));
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+
+		dd.shutdown();
+		assertTrue(dd.awaitTermination(10, TimeUnit.SECONDS));
+
+		// the executor belongs to the caller and keeps running
+		assertFalse(pool.isShutdown());
+		assertEquals(Boolean.TRUE, pool.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return true;
+			}
+		}).get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSingleThreadExecutor() throws Exception {
+		pool = Executors.newFixedThreadPool(1);
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		DirectDownloader dd = new DirectDownloader(pool, 1);
+		dd.setMinSegmentSize(64 * 1024);
+		new Thread(dd).start();
+
+		// the worker holds the only thread, so it fetches the segments itself
+		dd.submit(new DownloadTask(server.getUrl("file.bin"), f).setSegments(4)).get(30, TimeUnit.SECONDS);
+
+		assertEquals(4, server.getRequests());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(f));
+
+		dd.shutdown();
+		assertTrue(dd.awaitTermination(10, TimeUnit.SECONDS));
+		assertFalse(pool.isShutdown());
+	}
+
+	@Test
+	public void testDirectExecutor() throws Exception {
+		final DirectDownloader dd = new DirectDownloader(new Executor() {
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, 1);
+		new Thread(dd).start();
+
+		final AtomicBoolean free = new AtomicBoolean();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// the download runs on the submitting thread, without holding the
+		// downloader's lock
+		dd.submit(new DownloadTask(server.getUrl("file.bin"), out, new DownloadAdaptor() {
+			@Override
+			public void onStart(String fname, int fsize) {
+				Thread t = new Thread() {
+					@Override
+					public void run() {
+						dd.getPausedCount();
+						free.set(true);
+					}
+				};
+
+				t.start();
+
+				try {
+					t.join(5000);
+				} catch (InterruptedException e) {
+				}
+			}
+		})).get(30, TimeUnit.SECONDS);
+
+		assertTrue(free.get());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+		dd.shutdown();
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		pool = Executors.newCachedThreadPool();
+		final AtomicInteger rejections = new AtomicInteger(1);
+
+		DirectDownloader dd = new DirectDownloader(new Executor() {
+			public void execute(Runnable command) {
+				if (rejections.getAndDecrement() > 0) {
+					throw new RejectedExecutionException();
+				}
+
+				pool.execute(command);
+			}
+		}, 2);
+		new Thread(dd).start();
+
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		DownloadHandle handle = dd.submit(new DownloadTask(server.getUrl("file1.bin"), out1));
+
+		for (int i = 0; i < 100 && rejections.get() > 0; i++) {
+			Thread.sleep(50);
+		}
+
+		// the rejected task is back in the queue
+		assertEquals(DownloadTask.State.QUEUED, handle.getTask().getState());
+		assertEquals(1, dd.getQueuedCount());
+
+		// and starts with the next task
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		dd.submit(new DownloadTask(server.getUrl("file2.bin"), out2)).get(30, TimeUnit.SECONDS);
+		handle.get(30, TimeUnit.SECONDS);
+
+		assertArrayEquals(server.getPayload(), out1.toByteArray());
+		assertArrayEquals(server.getPayload(), out2.toByteArray());
+
+		dd.shutdown(DirectDownloader.ShutdownMode.DRAIN);
+		assertTrue(dd.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	private static class CountingExecutor implements Executor {
+		private final Executor executor;
+		private final AtomicInteger count = new AtomicInteger();
+
+		CountingExecutor(Executor executor) {
+			this.executor = executor;
+		}
+
+		public void execute(Runnable command) {
+			count.incrementAndGet();
+			executor.execute(command);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FileSinkTest {
+	@Test
+	public void testFill() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		// left over from an earlier file
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+
+		int length = 200 * 1024 + 7;
+		FileSink sink = new FileSink(f);
+		sink.setLength(0);
+		sink.fill(0, length);
+		sink.write(ByteBuffer.wrap(new byte[] { 9 }), 10);
+		sink.close();
+
+		byte[] expected = new byte[length];
+		expected[10] = 9;
+
+		assertEquals(length, f.length());
+		assertArrayEquals(expected, SegmentedTest.readFile(f));
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HttpConnectorTest {
+
+	@Test
+	public void testSharedSocketFactory() throws Exception {
+		HttpConnector connector = new HttpConnector();
+		SSLSocketFactory factory = connector.getSSLSocketFactory();
+
+		assertSame(factory, connector.getSSLSocketFactory());
+
+		// opening a connection doesn't connect yet
+		HttpsURLConnection c1 = connector.getSecureConnection(new URL("https://localhost/a.bin"));
+		HttpsURLConnection c2 = connector.getSecureConnection(new URL("https://localhost/b.bin"));
+
+		assertSame(factory, c1.getSSLSocketFactory());
+		assertSame(factory, c2.getSSLSocketFactory());
+	}
+
+	@Test
+	public void testRebuildSocketFactory() throws Exception {
+		HttpConnector connector = new HttpConnector();
+		SSLSocketFactory factory = connector.getSSLSocketFactory();
+
+		connector.setTrustManagers(connector.getTrustManagers());
+		SSLSocketFactory trusted = connector.getSSLSocketFactory();
+
+		assertNotSame(factory, trusted);
+		assertSame(trusted, connector.getSSLSocketFactory());
+
+		connector.setKeyManagers(new KeyManager[0]);
+		SSLSocketFactory keyed = connector.getSSLSocketFactory();
+
+		assertNotSame(trusted, keyed);
+		assertSame(keyed, connector.getSecureConnection(new URL("https://localhost/")).getSSLSocketFactory());
+	}
+
+	@Test
+	public void testSetSocketFactory() throws Exception {
+		HttpConnector connector = new HttpConnector();
+		SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+		connector.setSSLSocketFactory(factory);
+
+		assertSame(factory, connector.getSSLSocketFactory());
+		assertSame(factory, connector.getSecureConnection(new URL("https://localhost/")).getSSLSocketFactory());
+
+		// a factory built from other managers replaces the given one
+		connector.setTrustManagers(new TrustManager[0]);
+		assertNotSame(factory, connector.getSSLSocketFactory());
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class KeepAliveTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestServer(32 * 1024);
+		dd = new DirectDownloader(1);
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			download("file" + i + ".bin");
+		}
+
+		assertEquals(3, server.getRequests());
+		assertEquals(1, server.getConnections());
+	}
+
+	@Test
+	public void testReuseAfterError() throws Exception {
+		dd.download(new DownloadTask(server.getUrl("missing.bin"), new ByteArrayOutputStream()));
+		download("file.bin");
+
+		assertEquals(2, server.getRequests());
+		assertEquals(1, server.getConnections());
+	}
+
+	private void download(String name) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SegmentedTest.CountingListener listener = new SegmentedTest.CountingListener();
+
+		dd.download(new DownloadTask(server.getUrl(name), out, listener));
+
+		listener.await();
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+
+		// wait for the worker to hand the connection back
+		for (int i = 0; i < 100 && dd.getActiveCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ListenerDispatcherTest {
+
+	@Test
+	public void testCoalescing() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		RecordingListener recorder = new RecordingListener();
+
+		try {
+			ListenerDispatcher dispatcher = new ListenerDispatcher(Collections
+					.<DownloadListener> singletonList(recorder), executor, 0, 1000);
+
+			dispatcher.onStart("file", 10000);
+			for (int i = 1; i <= 1000; i++) {
+				dispatcher.onUpdate(10, i * 10);
+			}
+			dispatcher.onComplete();
+
+			assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals("start", recorder.events.get(0));
+		assertEquals("complete", recorder.events.get(recorder.events.size() - 1));
+		assertTrue(recorder.events.size() <= 12);
+		assertEquals(10000, recorder.bytes);
+		assertEquals(10000, recorder.total);
+	}
+
+	@Test
+	public void testDirect() {
+		RecordingListener recorder = new RecordingListener();
+		ListenerDispatcher dispatcher = new ListenerDispatcher(Collections
+				.<DownloadListener> singletonList(recorder), null, 0, 0);
+
+		dispatcher.onStart("file", 20);
+		dispatcher.onUpdate(10, 10);
+		dispatcher.onUpdate(10, 20);
+		dispatcher.onCancel();
+
+		assertEquals("[start, update, update, cancel]", recorder.events.toString());
+	}
+
+	@Test
+	public void testLargeFiles() {
+		final long size = 5L * 1024 * 1024 * 1024;
+		final long[] longs = new long[2];
+		RecordingListener recorder = new RecordingListener();
+
+		List<DownloadListener> listeners = new ArrayList<DownloadListener>();
+		listeners.add(recorder);
+		listeners.add(new LongDownloadAdaptor() {
+			@Override
+			public void onStart(String fname, long fsize) {
+				longs[0] = fsize;
+			}
+
+			@Override
+			public void onUpdate(long bytes, long totalDownloaded) {
+				longs[1] = totalDownloaded;
+			}
+		});
+
+		ListenerDispatcher dispatcher = new ListenerDispatcher(listeners, null, 0, 0);
+		dispatcher.onStart("image.iso", size);
+		dispatcher.onUpdate(1024, size - 1024);
+
+		assertEquals(size, longs[0]);
+		assertEquals(size - 1024, longs[1]);
+		assertEquals(-1, recorder.size);
+		assertEquals(Integer.MAX_VALUE, recorder.total);
+	}
+
+	static class RecordingListener implements DownloadListener {
+		private final CountDownLatch done = new CountDownLatch(1);
+		final List<String> events = new ArrayList<String>();
+		int size;
+		int bytes;
+		int total;
+
+		public void onStart(String fname, int fsize) {
+			events.add("start");
+			size = fsize;
+		}
+
+		public void onUpdate(int bytes, int totalDownloaded) {
+			events.add("update");
+			this.bytes += bytes;
+			this.total = totalDownloaded;
+		}
+
+		public void onComplete() {
+			events.add("complete");
+			done.countDown();
+		}
+
+		public void onCancel() {
+			events.add("cancel");
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ManifestTest {
+	private TestServer server;
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(64 * 1024);
+
+		dir = File.createTempFile("jddl", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testManifest() throws Exception {
+		Manifest manifest = new Manifest(new StringReader("# files\n" + server.getUrl("a.bin") + "\n\n  "
+				+ server.getUrl("b.bin") + "  renamed.bin\n"), dir);
+
+		assertTrue(manifest.hasNext());
+		DownloadTask dt = manifest.next();
+		assertEquals(server.getUrl("a.bin"), dt.getUrl());
+		assertEquals(new File(dir, "a.bin"), dt.getFile());
+		assertEquals(2, manifest.getLine());
+
+		assertEquals(new File(dir, "renamed.bin"), manifest.next().getFile());
+		assertFalse(manifest.hasNext());
+
+		try {
+			new Manifest(new StringReader("\nnot a url\n"), dir).next();
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("line 2"));
+		}
+	}
+
+	@Test
+	public void testSubmitAll() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			sb.append(server.getUrl("file" + i + ".bin")).append('\n');
+		}
+
+		final DirectDownloader dd = new DirectDownloader(1);
+		dd.setMaxQueued(2);
+		new Thread(dd).start();
+
+		final Manifest manifest = new Manifest(new StringReader(sb.toString()), dir);
+		final int[] maxQueued = new int[1];
+		final AtomicInteger succeeded = new AtomicInteger();
+		final List<DownloadTask> tasks = new ArrayList<DownloadTask>();
+
+		// tasks are only taken from the manifest when there is room for them
+		int count = dd.submitAll(new Iterator<DownloadTask>() {
+			public boolean hasNext() {
+				return manifest.hasNext();
+			}
+
+			public DownloadTask next() {
+				maxQueued[0] = Math.max(maxQueued[0], dd.getQueuedCount());
+				tasks.add(manifest.next());
+				return tasks.get(tasks.size() - 1);
+			}
+
+			public void remove() {
+			}
+		}, new DownloadCallback() {
+			public void onSuccess(DownloadResult result) {
+				succeeded.incrementAndGet();
+			}
+
+			public void onFailure(Throwable cause) {
+			}
+		});
+
+		assertEquals(10, count);
+		assertTrue(maxQueued[0] <= 1);
+
+		dd.shutdown(DirectDownloader.ShutdownMode.DRAIN);
+		assertTrue(dd.awaitTermination(30, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(64 * 1024, new File(dir, "file" + i + ".bin").length());
+			assertEquals(64 * 1024, tasks.get(i).getHandle().get().getBytes());
+		}
+
+		assertEquals(10, succeeded.get());
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		DirectDownloader dd = new DirectDownloader();
+		dd.setMaxQueued(1);
+
+		dd.submit(new DownloadTask(server.getUrl("first.bin"), new ByteArrayOutputStream()));
+
+		try {
+			dd.submit(new DownloadTask(server.getUrl("second.bin"), new ByteArrayOutputStream()));
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+
+		assertEquals(1, dd.getQueuedCount());
+		assertEquals(1, dd.shutdown(DirectDownloader.ShutdownMode.ABORT).size());
+	}
+
+	@Test
+	public void testQueueFullResume() throws Exception {
+		DirectDownloader dd = new DirectDownloader();
+		dd.setMaxQueued(1);
+
+		DownloadTask paused = new DownloadTask(server.getUrl("paused.bin"), new ByteArrayOutputStream());
+		dd.submit(paused);
+		dd.pause(paused);
+
+		// a paused task leaves room in the queue
+		assertEquals(0, dd.getQueuedCount());
+		dd.submit(new DownloadTask(server.getUrl("queued.bin"), new ByteArrayOutputStream()));
+
+		// a resumed task is queued even if the queue is full, and counts
+		// against the limit until it starts
+		dd.resume(paused);
+		assertEquals(DownloadTask.State.QUEUED, paused.getState());
+		assertEquals(2, dd.getQueuedCount());
+
+		try {
+			dd.submit(new DownloadTask(server.getUrl("rejected.bin"), new ByteArrayOutputStream()));
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+
+		assertEquals(2, dd.shutdown(DirectDownloader.ShutdownMode.ABORT).size());
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class OutputStreamFactoryTest {
+	private TestServer server;
+	private DirectDownloader dd;
+	private final List<Stream> opened = new ArrayList<Stream>();
+
+	private class Stream extends ByteArrayOutputStream {
+		private boolean closed = false;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private final OutputStreamFactory factory = new OutputStreamFactory() {
+		public OutputStream open(DownloadTask task) throws IOException {
+			Stream s = new Stream();
+
+			synchronized (opened) {
+				opened.add(s);
+			}
+
+			return s;
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(64 * 1024);
+		dd = new DirectDownloader();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testOpenedWhenStarted() throws Exception {
+		DownloadHandle[] handles = new DownloadHandle[5];
+
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = dd.submit(new DownloadTask(server.getUrl("file" + i + ".bin"), factory));
+		}
+
+		// nothing is opened while the tasks are queued
+		assertEquals(0, opened.size());
+
+		new Thread(dd).start();
+
+		for (DownloadHandle handle : handles) {
+			handle.get(30, TimeUnit.SECONDS);
+		}
+
+		assertEquals(handles.length, opened.size());
+
+		for (Stream s : opened) {
+			assertTrue(s.closed);
+			assertArrayEquals(server.getPayload(), s.toByteArray());
+		}
+	}
+
+	@Test
+	public void testNotOpenedOnError() throws Exception {
+		new Thread(dd).start();
+		server.setErrorStatus(404, null);
+
+		try {
+			dd.submit(new DownloadTask(server.getUrl("missing.bin"), factory)).get(30, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			// expected
+		}
+
+		assertEquals(0, opened.size());
+	}
+}
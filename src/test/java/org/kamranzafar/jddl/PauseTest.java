@@ -0,0 +1,213 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PauseTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(512 * 1024);
+		dd = new DirectDownloader();
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testPauseReleasesWorker() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		DownloadTask dt = new DownloadTask(server.getUrl("paused.bin"), f).setMaxBytesPerSecond(256 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		Thread.sleep(500);
+		dd.pause(dt);
+		awaitPaused();
+
+		assertEquals(0, dd.getActiveCount());
+		assertTrue(!handle.isDone());
+
+		dd.resume(dt);
+		dt.setMaxBytesPerSecond(0);
+		handle.get(30, TimeUnit.SECONDS);
+
+		assertEquals(2, server.getRequests());
+		assertTrue(server.getLastRange().startsWith("bytes="));
+		assertTrue(!server.getLastRange().startsWith("bytes=0-"));
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(f));
+	}
+
+	@Test
+	public void testSetPaused() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DownloadTask dt = new DownloadTask(server.getUrl("task.bin"), out).setMaxBytesPerSecond(256 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		// pausing and resuming through the task goes through the downloader
+		Thread.sleep(500);
+		dt.setPaused(true);
+		awaitPaused();
+		assertEquals(DownloadTask.State.PAUSED, dt.getState());
+
+		dt.setMaxBytesPerSecond(0);
+		dt.setPaused(false);
+		handle.get(30, TimeUnit.SECONDS);
+
+		assertEquals(0, dd.getPausedCount());
+		assertEquals(DownloadTask.State.DONE, dt.getState());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testPauseStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SegmentedTest.CountingListener listener = new SegmentedTest.CountingListener();
+
+		DownloadTask dt = new DownloadTask(server.getUrl("stream.bin"), out, listener)
+				.setMaxBytesPerSecond(256 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		Thread.sleep(500);
+		dd.pause(dt);
+		awaitPaused();
+
+		dt.setMaxBytesPerSecond(0);
+		dd.resume(dt);
+		handle.get(30, TimeUnit.SECONDS);
+
+		assertEquals(1, listener.starts);
+		assertEquals(server.getPayload().length, listener.total);
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testPauseQueued() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		dd.setPoolSize(0);
+		DownloadTask dt = new DownloadTask(server.getUrl("queued.bin"), out);
+		DownloadHandle handle = dd.submit(dt);
+
+		dd.pause(dt);
+		dd.setPoolSize(3);
+
+		assertEquals(0, dd.getQueuedCount());
+		assertEquals(1, dd.getPausedCount());
+
+		dd.cancelAll();
+		assertTrue(handle.isCancelled());
+		assertEquals(0, server.getRequests());
+	}
+
+	@Test
+	public void testCancelPaused() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+		File journal = new File(f.getPath() + DownloadJournal.SUFFIX);
+		final boolean[] cancelled = new boolean[1];
+
+		DownloadTask dt = new DownloadTask(server.getUrl("paused.bin"), f, new DownloadAdaptor() {
+			@Override
+			public void onCancel() {
+				cancelled[0] = true;
+			}
+		}).setResumable(true).setMaxBytesPerSecond(256 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		Thread.sleep(500);
+		dd.pause(dt);
+		awaitPaused();
+		assertTrue(journal.exists());
+
+		dt.setCancelled(true);
+
+		try {
+			handle.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		assertEquals(DownloadTask.State.CANCELLED, dt.getState());
+		assertEquals(0, dd.getPausedCount());
+		assertTrue(!journal.exists());
+		assertTrue(cancelled[0]);
+		assertEquals(1, dd.getMetrics().getCancelled());
+	}
+
+	@Test
+	public void testCancelPausedStream() throws Exception {
+		final boolean[] closed = new boolean[1];
+
+		DownloadTask dt = new DownloadTask(server.getUrl("stream.bin"), new OutputStreamFactory() {
+			public OutputStream open(DownloadTask task) {
+				return new ByteArrayOutputStream() {
+					@Override
+					public void close() {
+						closed[0] = true;
+					}
+				};
+			}
+		}).setMaxBytesPerSecond(256 * 1024);
+		DownloadHandle handle = dd.submit(dt);
+
+		Thread.sleep(500);
+		dd.pause(dt);
+		awaitPaused();
+		assertTrue(!closed[0]);
+
+		assertTrue(handle.cancel(true));
+		assertTrue(handle.isCancelled());
+		assertEquals(0, dd.getPausedCount());
+		assertTrue(closed[0]);
+	}
+
+	private void awaitPaused() throws InterruptedException {
+		for (int i = 0; i < 100 && dd.getPausedCount() == 0; i++) {
+			Thread.sleep(50);
+		}
+
+		assertEquals(1, dd.getPausedCount());
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RateLimiterTest {
+
+	@Test
+	public void testRate() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(100 * 1024);
+		assertEquals(10 * 1024, limiter.getBurst());
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 50; i++) {
+			limiter.acquire(limiter.getBurst());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		// 500 KB at 100 KB/s
+		assertTrue("Took " + elapsed + "ms", elapsed >= 4500 && elapsed < 6000);
+	}
+
+	@Test
+	public void testUnlimited() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(0);
+		assertEquals(Integer.MAX_VALUE, limiter.getBurst());
+
+		long start = System.currentTimeMillis();
+		limiter.acquire(Integer.MAX_VALUE);
+		assertTrue(System.currentTimeMillis() - start < 100);
+	}
+
+	@Test
+	public void testThrottledDownload() throws Exception {
+		TestServer server = new TestServer(200 * 1024);
+		DirectDownloader dd = new DirectDownloader();
+		dd.setMaxBytesPerSecond(400 * 1024);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try {
+			long start = System.currentTimeMillis();
+			dd.new DownloadWorker(null).download(new DownloadTask(server.getUrl("throttled.bin"), out)
+					.setMaxBytesPerSecond(200 * 1024));
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertTrue("Took " + elapsed + "ms", elapsed >= 900);
+			assertArrayEquals(server.getPayload(), out.toByteArray());
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResumeTest {
+	private TestServer server;
+	private DirectDownloader dd;
+	private DirectDownloader.DownloadWorker worker;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(512 * 1024);
+		dd = new DirectDownloader();
+		dd.setMinSegmentSize(64 * 1024);
+		new Thread(dd).start();
+		worker = dd.new DownloadWorker(null);
+
+		file = File.createTempFile("jddl", ".bin");
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+		new File(file.getPath() + DownloadJournal.SUFFIX).delete();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		File journal = new File(file.getPath() + DownloadJournal.SUFFIX);
+
+		server.setFailAfter(200 * 1024);
+		try {
+			worker.download(new DownloadTask(server.getUrl("resume.bin"), file).setResumable(true));
+			fail("Download should have been interrupted");
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertTrue(journal.exists());
+
+		worker.download(new DownloadTask(server.getUrl("resume.bin"), file).setResumable(true));
+
+		assertEquals("bytes=" + 200 * 1024 + "-" + (512 * 1024 - 1), server.getLastRange());
+		assertFalse(journal.exists());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(file));
+	}
+
+	@Test
+	public void testResumeChangedFile() throws Exception {
+		server.setFailAfter(100 * 1024);
+		try {
+			worker.download(new DownloadTask(server.getUrl("changed.bin"), file).setResumable(true));
+			fail("Download should have been interrupted");
+		} catch (IOException e) {
+			// expected
+		}
+
+		server.setETag("\"v2\"");
+		worker.download(new DownloadTask(server.getUrl("changed.bin"), file).setResumable(true));
+
+		assertEquals(server.getPayload().length, file.length());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(file));
+	}
+
+	@Test
+	public void testResumeSegmented() throws Exception {
+		File journal = new File(file.getPath() + DownloadJournal.SUFFIX);
+
+		server.setFailAfter(50 * 1024);
+		try {
+			dd.submit(new DownloadTask(server.getUrl("segmented.bin"), file).setResumable(true).setSegments(4))
+					.get(30, TimeUnit.SECONDS);
+			fail("Download should have been interrupted");
+		} catch (ExecutionException e) {
+			// expected
+		}
+
+		assertTrue(journal.exists());
+		List<String> ranges = server.getRanges();
+		assertEquals(4, ranges.size());
+
+		dd.submit(new DownloadTask(server.getUrl("segmented.bin"), file).setResumable(true).setSegments(4)).get(
+				30, TimeUnit.SECONDS);
+
+		// the first segment carries on where the connection broke off
+		List<String> resumed = server.getRanges().subList(ranges.size(), server.getRanges().size());
+		assertTrue(resumed.toString(), resumed.contains("bytes=" + 50 * 1024 + "-" + (128 * 1024 - 1)));
+		assertFalse(journal.exists());
+		assertArrayEquals(server.getPayload(), SegmentedTest.readFile(file));
+	}
+}
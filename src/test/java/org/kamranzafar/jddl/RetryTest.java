@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RetryTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestServer(300 * 1024);
+		dd = new DirectDownloader();
+		dd.setRetryPolicy(new RetryPolicy(3).setInitialDelay(10));
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testResumeAfterFailure() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		server.setFailAfter(100 * 1024);
+		dd.submit(new DownloadTask(server.getUrl("retry.bin"), out)).get(30, TimeUnit.SECONDS);
+
+		assertEquals(2, server.getRequests());
+		assertTrue(server.getLastRange().startsWith("bytes=" + 100 * 1024 + "-"));
+		assertEquals(1, dd.getMetrics().getRetries());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testRetryAfter() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		server.setErrorStatus(503, "1");
+		long start = System.currentTimeMillis();
+		dd.submit(new DownloadTask(server.getUrl("busy.bin"), out)).get(30, TimeUnit.SECONDS);
+
+		assertTrue(System.currentTimeMillis() - start >= 1000);
+		assertEquals(2, server.getRequests());
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testPolicy() throws Exception {
+		URL url = new URL("http://localhost/");
+		RetryPolicy policy = new RetryPolicy(3).setInitialDelay(1000).setJitter(0.5);
+
+		assertEquals(-1, policy.getDelay(2, new HttpStatusException(url, 404, null)));
+		assertEquals(-1, policy.getDelay(4, new IOException()));
+		assertEquals(5000, policy.getDelay(2, new HttpStatusException(url, 429, "5")));
+		assertEquals(-1, policy.getDelay(2, new HttpStatusException(url, 429, "3600")));
+
+		long delay = policy.getDelay(3, new IOException());
+		assertTrue(delay > 1000 && delay <= 2000);
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SegmentedTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 17);
+		dd = new DirectDownloader();
+		dd.setMinSegmentSize(64 * 1024);
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testSegmented() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CountingListener listener = new CountingListener();
+
+		dd.download(new DownloadTask(server.getUrl("segmented.bin"), out, listener).setSegments(4));
+
+		listener.await();
+		assertEquals(4, server.getRequests());
+		assertEquals(1, listener.starts);
+		assertEquals(server.getPayload().length, listener.total);
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	@Test
+	public void testSegmentedToFile() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+		CountingListener listener = new CountingListener();
+
+		dd.download(new DownloadTask(server.getUrl("file.bin"), f, listener).setSegments(3).setPreallocate(true));
+
+		listener.await();
+		assertArrayEquals(server.getPayload(), readFile(f));
+	}
+
+	@Test
+	public void testPreallocate() throws Exception {
+		final File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+		final long[] length = new long[1];
+
+		dd.submit(new DownloadTask(server.getUrl("file.bin"), f, new DownloadAdaptor() {
+			@Override
+			public void onStart(String fname, int fsize) {
+				length[0] = f.length();
+			}
+		}).setPreallocate(true)).get(30, TimeUnit.SECONDS);
+
+		// the space is reserved before the download connects
+		assertEquals(1, server.getHeadRequests());
+		assertEquals(2, server.getRequests());
+		assertEquals(server.getPayload().length, length[0]);
+		assertArrayEquals(server.getPayload(), readFile(f));
+	}
+
+	@Test
+	public void testUnlimitedHost() throws Exception {
+		File f = File.createTempFile("jddl", ".bin");
+		f.deleteOnExit();
+
+		// a worker run outside the queue holds no connection to the host, so
+		// all of the host's connections are available
+		ExecutorService pool = Executors.newCachedThreadPool();
+		DirectDownloader unstarted = new DirectDownloader(pool, 1);
+		unstarted.setMinSegmentSize(64 * 1024);
+
+		try {
+			unstarted.new DownloadWorker(null).download(new DownloadTask(server.getUrl("file.bin"), f).setSegments(4));
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(4, server.getRequests());
+		assertArrayEquals(server.getPayload(), readFile(f));
+	}
+
+	@Test
+	public void testNoRangeSupport() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CountingListener listener = new CountingListener();
+
+		server.setRanges(false);
+		dd.download(new DownloadTask(server.getUrl("whole.bin"), out, listener).setSegments(4));
+
+		listener.await();
+		assertEquals(1, server.getRequests());
+		assertEquals(server.getPayload().length, listener.total);
+		assertArrayEquals(server.getPayload(), out.toByteArray());
+	}
+
+	static byte[] readFile(File f) throws IOException {
+		byte[] b = new byte[(int) f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.readFully(b);
+		} finally {
+			in.close();
+		}
+		return b;
+	}
+
+	static class CountingListener extends DownloadAdaptor {
+		private final CountDownLatch done = new CountDownLatch(1);
+		int starts;
+		int total;
+
+		@Override
+		public void onStart(String fname, int fsize) {
+			starts++;
+		}
+
+		@Override
+		public void onUpdate(int bytes, int totalDownloaded) {
+			total = totalDownloaded;
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertEquals(true, done.await(30, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ShutdownTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(64 * 1024);
+		dd = new DirectDownloader(1);
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		DownloadHandle[] handles = new DownloadHandle[3];
+
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = dd.submit(new DownloadTask(server.getUrl("drain" + i + ".bin"), new ByteArrayOutputStream()));
+		}
+
+		assertTrue(dd.shutdown(DirectDownloader.ShutdownMode.DRAIN).isEmpty());
+		assertTrue(dd.isShutdown());
+		assertTrue(dd.awaitTermination(30, TimeUnit.SECONDS));
+		assertTrue(dd.isTerminated());
+
+		for (DownloadHandle handle : handles) {
+			assertEquals(64 * 1024, handle.get().getBytes());
+		}
+
+		try {
+			dd.submit(new DownloadTask(server.getUrl("late.bin"), new ByteArrayOutputStream()));
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFinishActive() throws Exception {
+		DownloadTask active = new DownloadTask(server.getUrl("active.bin"), new ByteArrayOutputStream())
+				.setMaxBytesPerSecond(128 * 1024);
+		DownloadHandle handle = dd.submit(active);
+		DownloadTask queued = new DownloadTask(server.getUrl("queued.bin"), new ByteArrayOutputStream());
+		DownloadHandle queuedHandle = dd.submit(queued);
+
+		waitUntilRunning(active);
+
+		List<DownloadTask> unstarted = dd.shutdown(DirectDownloader.ShutdownMode.FINISH_ACTIVE);
+		assertEquals(1, unstarted.size());
+		assertTrue(unstarted.get(0) == queued);
+		assertEquals(DownloadTask.State.NEW, queued.getState());
+
+		try {
+			queuedHandle.get();
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		assertTrue(dd.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(64 * 1024, handle.get().getBytes());
+		assertEquals(DownloadTask.State.DONE, active.getState());
+		assertEquals(1, server.getRequests());
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		DownloadTask active = new DownloadTask(server.getUrl("active.bin"), new ByteArrayOutputStream())
+				.setMaxBytesPerSecond(8 * 1024);
+		dd.submit(active);
+		DownloadTask queued = new DownloadTask(server.getUrl("queued.bin"), new ByteArrayOutputStream());
+		dd.submit(queued);
+
+		waitUntilRunning(active);
+
+		long start = System.currentTimeMillis();
+		List<DownloadTask> unstarted = dd.shutdown(DirectDownloader.ShutdownMode.ABORT);
+		assertEquals(1, unstarted.size());
+
+		// the rate limited download is interrupted instead of taking 8s
+		assertTrue(dd.awaitTermination(30, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(DownloadTask.State.CANCELLED, active.getState());
+		assertEquals(0, dd.getActiveCount());
+	}
+
+	private void waitUntilRunning(DownloadTask dt) throws InterruptedException {
+		for (int i = 0; i < 500 && dt.getState() != DownloadTask.State.RUNNING; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(DownloadTask.State.RUNNING, dt.getState());
+	}
+}
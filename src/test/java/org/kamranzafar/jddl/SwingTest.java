@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -32,6 +33,7 @@ import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 import javax.swing.border.TitledBorder;
 
 import org.junit.Test;
@@ -67,6 +69,14 @@ public class SwingTest {
 		// Create a DirectDownloader instance
 		final DirectDownloader fd = new DirectDownloader();
 
+		// Update the progress bars on the event thread, at most every 100ms
+		fd.setListenerExecutor(new Executor() {
+			public void execute(Runnable command) {
+				SwingUtilities.invokeLater(command);
+			}
+		});
+		fd.setProgressInterval(100);
+
 		// Progress bars for individual file downloads
 		JProgressBar[] progressBar = new JProgressBar[3];
 
@@ -177,9 +187,7 @@ public class SwingTest {
 			if (fsize > -1) {
 				progressBar.setMaximum(fsize);
 
-				synchronized (totalProgressBar) {
-					totalProgressBar.setMaximum(totalProgressBar.getMaximum() + fsize);
-				}
+				totalProgressBar.setMaximum(totalProgressBar.getMaximum() + fsize);
 
 				size = fsize;
 			} else {
@@ -193,9 +201,7 @@ public class SwingTest {
 			} else {
 				progressBar.setValue(totalDownloaded);
 
-				synchronized (totalProgressBar) {
-					totalProgressBar.setValue(totalProgressBar.getValue() + bytes);
-				}
+				totalProgressBar.setValue(totalProgressBar.getValue() + bytes);
 			}
 		}
 
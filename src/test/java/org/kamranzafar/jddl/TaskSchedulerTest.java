@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TaskSchedulerTest {
+
+	@Test
+	public void testRoundRobin() throws MalformedURLException {
+		TaskScheduler scheduler = new TaskScheduler();
+
+		for (int i = 0; i < 3; i++) {
+			scheduler.add(task("http://slow/" + i));
+		}
+		scheduler.add(task("http://fast/0"));
+		scheduler.add(task("http://other/0"));
+
+		assertEquals("slow", scheduler.next().getUrl().getHost());
+		assertEquals("fast", scheduler.next().getUrl().getHost());
+		assertEquals("other", scheduler.next().getUrl().getHost());
+		assertEquals("slow", scheduler.next().getUrl().getHost());
+	}
+
+	@Test
+	public void testHostLimit() throws MalformedURLException {
+		TaskScheduler scheduler = new TaskScheduler();
+		scheduler.setMaxPerHost(1);
+		scheduler.setMaxPerHost("fast", 2);
+
+		for (int i = 0; i < 3; i++) {
+			scheduler.add(task("http://slow/" + i));
+			scheduler.add(task("http://fast/" + i));
+		}
+
+		DownloadTask slow = scheduler.next();
+		assertEquals("slow", slow.getUrl().getHost());
+		assertEquals("fast", scheduler.next().getUrl().getHost());
+		assertEquals("fast", scheduler.next().getUrl().getHost());
+		assertNull(scheduler.next());
+		assertEquals(0, scheduler.reserve(slow.getUrl(), 3));
+
+		scheduler.release(slow.getUrl(), 1);
+		assertEquals("slow", scheduler.next().getUrl().getHost());
+		assertEquals(2, scheduler.size());
+	}
+
+	@Test
+	public void testPriority() throws MalformedURLException {
+		TaskScheduler scheduler = new TaskScheduler();
+
+		DownloadTask prefetch = task("http://mirror/prefetch");
+		DownloadTask background = task("http://mirror/background");
+		scheduler.add(prefetch);
+		scheduler.add(background);
+		scheduler.add(task("http://cdn/interactive").setPriority(10));
+
+		assertTrue(scheduler.reprioritize(background, 5));
+		assertEquals("cdn", scheduler.next().getUrl().getHost());
+		assertEquals(background, scheduler.next());
+		assertEquals(prefetch, scheduler.next());
+	}
+
+	@Test
+	public void testAging() throws Exception {
+		TaskScheduler scheduler = new TaskScheduler();
+		scheduler.setAging(10);
+
+		DownloadTask old = task("http://mirror/old");
+		scheduler.add(old);
+		Thread.sleep(50);
+		scheduler.add(task("http://cdn/urgent").setPriority(2));
+
+		assertEquals(old, scheduler.next());
+	}
+
+	private DownloadTask task(String url) throws MalformedURLException {
+		return new DownloadTask(new URL(url), new ByteArrayOutputStream());
+	}
+}
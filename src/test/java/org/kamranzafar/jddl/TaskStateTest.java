@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TaskStateTest {
+	private TestServer server;
+	private DirectDownloader dd;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(64 * 1024);
+		dd = new DirectDownloader();
+		new Thread(dd).start();
+	}
+
+	@After
+	public void tearDown() {
+		dd.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testStates() throws Exception {
+		DownloadTask dt = new DownloadTask(server.getUrl("done.bin"), new ByteArrayOutputStream());
+		assertEquals(DownloadTask.State.NEW, dt.getState());
+
+		dd.submit(dt).get(30, TimeUnit.SECONDS);
+		assertEquals(DownloadTask.State.DONE, dt.getState());
+
+		DownloadTask missing = new DownloadTask(server.getUrl("missing.bin"), new ByteArrayOutputStream());
+		try {
+			dd.submit(missing).get(30, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			// expected
+		}
+		assertEquals(DownloadTask.State.FAILED, missing.getState());
+
+		// finished tasks can't be cancelled any more
+		dt.setCancelled(true);
+		assertEquals(DownloadTask.State.DONE, dt.getState());
+	}
+
+	@Test
+	public void testCancelWhileWaiting() throws Exception {
+		server.setErrorStatus(503, "30");
+
+		DownloadTask dt = new DownloadTask(server.getUrl("busy.bin"), new ByteArrayOutputStream())
+				.setRetryPolicy(new RetryPolicy(3));
+		DownloadHandle handle = dd.submit(dt);
+
+		for (int i = 0; i < 100 && server.getRequests() == 0; i++) {
+			Thread.sleep(20);
+		}
+		Thread.sleep(100);
+
+		long start = System.currentTimeMillis();
+		handle.cancel(true);
+
+		try {
+			handle.get();
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		// the worker is woken up instead of waiting out the Retry-After
+		for (int i = 0; i < 100 && dd.getActiveCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(0, dd.getActiveCount());
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(DownloadTask.State.CANCELLED, dt.getState());
+		assertEquals(1, dd.getMetrics().getCancelled());
+		assertEquals(1, server.getRequests());
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012 Kamran Zafar 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ * 
+ */
+
+package org.kamranzafar.jddl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A tiny local HTTP server that serves a random payload and honours single byte
+ * range requests, so the tests don't depend on the internet
+ */
+public class TestServer implements HttpHandler {
+	private final HttpServer server;
+	private final byte[] payload;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger headRequests = new AtomicInteger();
+	private final Set<Integer> connections = new HashSet<Integer>();
+	private final List<String> rangeHeaders = new ArrayList<String>();
+
+	private boolean ranges = true;
+	private String etag = "\"v1\"";
+	private int failAfter = -1;
+	private int errorStatus = 0;
+	private String retryAfter;
+	private String lastRange;
+
+	public TestServer(int size) throws IOException {
+		payload = new byte[size];
+		new Random(size).nextBytes(payload);
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this);
+		server.start();
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+
+		synchronized (connections) {
+			connections.add(exchange.getRemoteAddress().getPort());
+		}
+
+		if (errorStatus > 0) {
+			if (retryAfter != null) {
+				exchange.getResponseHeaders().set("Retry-After", retryAfter);
+			}
+
+			exchange.sendResponseHeaders(errorStatus, -1);
+			exchange.close();
+			errorStatus = 0;
+			return;
+		}
+
+		if (exchange.getRequestURI().getPath().startsWith("/missing")) {
+			byte[] body = "Not found".getBytes();
+			exchange.sendResponseHeaders(404, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+			return;
+		}
+
+		int start = 0;
+		int end = payload.length - 1;
+
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		boolean partial = ranges && range != null && range.startsWith("bytes=")
+				&& (ifRange == null || ifRange.equals(etag));
+
+		lastRange = range;
+		if (range != null) {
+			synchronized (rangeHeaders) {
+				rangeHeaders.add(range);
+			}
+		}
+
+		exchange.getResponseHeaders().set("ETag", etag);
+
+		if (ranges) {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		}
+
+		if (partial) {
+			String[] r = range.substring(6).split("-", -1);
+			start = Integer.parseInt(r[0]);
+			if (r[1].length() > 0) {
+				end = Math.min(end, Integer.parseInt(r[1]));
+			}
+
+			exchange.getResponseHeaders().set("Content-Range",
+					"bytes " + start + "-" + end + "/" + payload.length);
+		}
+
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			headRequests.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(end - start + 1));
+			exchange.sendResponseHeaders(partial ? 206 : 200, -1);
+			exchange.close();
+			return;
+		}
+
+		exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+
+		OutputStream os = exchange.getResponseBody();
+		try {
+			if (failAfter >= 0 && failAfter < end - start + 1) {
+				// drop the connection half way through
+				os.write(payload, start, failAfter);
+				os.flush();
+				failAfter = -1;
+				return;
+			}
+
+			os.write(payload, start, end - start + 1);
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			exchange.close();
+		}
+	}
+
+	public URL getUrl(String name) throws MalformedURLException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name);
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getHeadRequests() {
+		return headRequests.get();
+	}
+
+	/**
+	 * Returns the number of distinct client connections the requests came in
+	 * on
+	 */
+	public int getConnections() {
+		synchronized (connections) {
+			return connections.size();
+		}
+	}
+
+	public String getLastRange() {
+		return lastRange;
+	}
+
+	/**
+	 * Returns the Range headers of all requests so far, in the order they
+	 * came in
+	 */
+	public List<String> getRanges() {
+		synchronized (rangeHeaders) {
+			return new ArrayList<String>(rangeHeaders);
+		}
+	}
+
+	public TestServer setETag(String etag) {
+		this.etag = etag;
+		return this;
+	}
+
+	/**
+	 * Makes the next response break off after the given number of bytes
+	 */
+	public TestServer setFailAfter(int failAfter) {
+		this.failAfter = failAfter;
+		return this;
+	}
+
+	/**
+	 * Makes the next response an error with the given status
+	 */
+	public TestServer setErrorStatus(int status, String retryAfter) {
+		this.errorStatus = status;
+		this.retryAfter = retryAfter;
+		return this;
+	}
+
+	public TestServer setRanges(boolean ranges) {
+		this.ranges = ranges;
+		return this;
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+}